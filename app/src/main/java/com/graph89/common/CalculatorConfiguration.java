@@ -29,8 +29,11 @@ public class CalculatorConfiguration
 	public static final String	CPUSpeedKey				= "CONF_CPU_SPEED";
 	public static final String	EnergySaveKey			= "CONF_ENERGY_SAVE";
 	public static final String	OverclockWhenBusyKey	= "CONF_OVERCLOCK";
+	public static final String	AdaptiveSpeedKey		= "CONF_ADAPTIVE_SPEED";
 	public static final String	SaveStateOnExitKey		= "CONF_SAVE_STATE";
 	public static final String	EnableGrayScaleKey		= "CONF_ENABLE_GRAYSCALE";
+	public static final String	VsyncRenderingKey		= "CONF_VSYNC_RENDERING";
+	public static final String	FastInstallKey			= "CONF_FAST_INSTALL";
 	public static final String	PixelOffKey				= "CONF_PIXEL_OFF";
 	public static final String	PixelOnKey				= "CONF_PIXEL_ON";
 	public static final String	LCDColorKey				= "CONF_LCD_COLOR";
@@ -42,10 +45,13 @@ public class CalculatorConfiguration
 	public int					ScreenScale				= -1;
 	public int					Skin					= SkinDefinition.BUILD_IN_UNKNOWN;
 	public boolean				EnableGrayScale			= false;
+	public boolean				VsyncRendering			= false;
+	public boolean				FastInstall				= false;
 	public boolean				SaveStateOnExit			= true;
 	public int					CPUSpeed				= 100;
 	public boolean				EnergySave				= true;
 	public boolean				OverclockWhenBusy		= true;
+	public boolean				AdaptiveSpeed			= false;
 	public String				Orientation				= "Portrait";
 	public boolean				UseLCDGrid				= false;
 
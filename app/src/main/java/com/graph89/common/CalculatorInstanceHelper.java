@@ -72,6 +72,21 @@ public class CalculatorInstanceHelper
 		}
 	}
 
+	public CalculatorInstance GetByID(int id)
+	{
+		synchronized (LockObj)
+		{
+			for (int i = 0; i < sInstances.size(); ++i)
+			{
+				CalculatorInstance instance = sInstances.get(i);
+
+				if (instance.ID == id) return instance;
+			}
+
+			return null;
+		}
+	}
+
 	public int size()
 	{
 		synchronized (LockObj)
@@ -19,7 +19,10 @@
 
 package com.graph89.common;
 
+import java.io.File;
+
 import com.graph89.emulationcore.EmulatorActivity;
+import com.graph89.emulationcore.ScreenRecorder;
 
 public abstract class EmulatorThread
 {
@@ -31,6 +34,17 @@ public abstract class EmulatorThread
 	public static final int			STATE_EMULATORSTATE_SAVED	= 3;
 	public static final int			STATE_EXIT_COMPLETE			= 4;
 
+	public static final int			INPUT_LOG_OFF				= 0;
+	public static final int			INPUT_LOG_RECORD			= 1;
+	public static final int			INPUT_LOG_REPLAY			= 2;
+
+	public static final String		INPUT_LOG_EXTENSION			= ".keys";
+	public static final String		INPUT_LOG_STATE_EXTENSION	= ".keys.state";
+	public static final String		CHECKSUM_EXTENSION			= ".sum";
+
+	public static final long		FAST_FORWARD_BATCH_NS		= 20 * 1000 * 1000;
+	public static final int			FAST_FORWARD_SCREEN_SLEEP	= 100;
+
 	public Thread					EngineThread				= null;
 	public Thread					ScreenThread				= null;
 
@@ -41,10 +55,26 @@ public abstract class EmulatorThread
 	public static volatile boolean	SaveState					= false;
 	public static volatile boolean	ResetCalc					= false;
 
+	public static volatile boolean	RecordInput					= false;
+	public static volatile boolean	ReplayInput					= false;
+	public static volatile boolean	StopInputLog				= false;
+	public static volatile int		InputLogMode				= INPUT_LOG_OFF;
+
+	public static volatile boolean	FastForward					= false;
+	public static volatile float	SpeedMultiplier				= 1.0f;
+
+	public volatile boolean			IsSleeping					= false;
+
+	// the native side picked the instance up from standby, already loaded
+	protected boolean				Resumed						= false;
+
 	protected int					mState						= STATE_NOT_INIT;
 
 	protected volatile boolean		KillFlag					= false;
 
+	private long					mSpeedWallTime				= 0;
+	private long					mSpeedEmulatedTime			= 0;
+
 	public void Kill()
 	{
 		KillFlag = true;
@@ -65,12 +95,86 @@ public abstract class EmulatorThread
 		}
 	}
 
-	public EmulatorThread(EmulatorActivity activity, CalculatorInstance calculatorInstance)
+	protected abstract void RunEngine();
+
+	protected abstract int LoadInputLogState(String stateFile);
+
+	protected abstract void WriteInputLogState(String stateFile);
+
+	// Deterministic mode: recording snapshots the current state and logs key
+	// input from there, replaying restarts from that snapshot and feeds the
+	// logged input back. Runs on the engine thread.
+	protected void ProcessInputLog()
+	{
+		String logFile = CalculatorInstance.StateFilePath + INPUT_LOG_EXTENSION;
+		String stateFile = CalculatorInstance.StateFilePath + INPUT_LOG_STATE_EXTENSION;
+
+		if (StopInputLog || LoadState || ResetCalc)
+		{
+			EmulatorActivity.nativeInputLogStop();
+		}
+		else if (RecordInput || ReplayInput)
+		{
+			if (RecordInput)
+			{
+				WriteInputLogState(stateFile);
+			}
+
+			boolean canStart = new File(stateFile).isFile() && (RecordInput || new File(logFile).isFile());
+
+			// the clock must be fixed before the state is loaded
+			if (canStart && EmulatorActivity.nativeInputLogStart(logFile, RecordInput ? 0 : 1) == 0 && LoadInputLogState(stateFile) != 0)
+			{
+				EmulatorActivity.nativeInputLogStop();
+			}
+		}
+
+		RecordInput = false;
+		ReplayInput = false;
+		StopInputLog = false;
+		InputLogMode = EmulatorActivity.nativeInputLogMode();
+	}
+
+	// Uncapped mode: run slices back to back for one batch without sleeping.
+	// The screen thread keeps its own pace, so frames in between are skipped.
+	protected void RunFastForward()
+	{
+		long end = System.nanoTime() + FAST_FORWARD_BATCH_NS;
+
+		do
+		{
+			RunEngine();
+		} while (!KillFlag && FastForward && System.nanoTime() < end);
+	}
+
+	// Emulated time over wall time, sampled about once a second.
+	protected void UpdateSpeedMultiplier()
+	{
+		long now = System.nanoTime();
+
+		if (mSpeedWallTime != 0 && now - mSpeedWallTime < 1000 * 1000 * 1000) return;
+
+		long emulated = EmulatorActivity.nativeGetEmulatedTime();
+
+		if (mSpeedWallTime != 0)
+		{
+			SpeedMultiplier = (emulated - mSpeedEmulatedTime) * 1000.0f / (now - mSpeedWallTime);
+		}
+
+		mSpeedWallTime = now;
+		mSpeedEmulatedTime = emulated;
+	}
+
+	public EmulatorThread(EmulatorActivity activity, CalculatorInstance calculatorInstance, boolean resumed)
 	{
 		synchronized (EmulatorThread.EmulatorLock)
 		{
 			Activity = activity;
 			this.CalculatorInstance = calculatorInstance;
+			this.Resumed = resumed;
+			FastForward = false;
+			SpeedMultiplier = 1.0f;
+			ScreenRecorder.Current = null;
 		}
 	}
 }
@@ -0,0 +1,236 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal animated GIF89a writer for palette indexed frames. All frames
+ * share one global palette and loop forever. Pixels can be scaled up by
+ * an integer factor on the way out.
+ */
+public class GifWriter
+{
+	private static final int	MAX_CODES	= 4096;
+	private static final int	HASH_SIZE	= 5003;
+
+	private OutputStream		mOut		= null;
+	private int					mWidth		= 0;
+	private int					mHeight		= 0;
+	private int					mScale		= 1;
+	private int					mColorBits	= 1;
+
+	private final int[]			mHashKeys	= new int[HASH_SIZE];
+	private final int[]			mHashCodes	= new int[HASH_SIZE];
+
+	// LZW output
+	private final byte[]		mBlock		= new byte[255];
+	private int					mBlockSize	= 0;
+	private int					mBitBuffer	= 0;
+	private int					mBitCount	= 0;
+
+	// width and height are the size of the frames passed to AddFrame, before scaling
+	public GifWriter(OutputStream out, int width, int height, int scale, int[] palette, int colors) throws IOException
+	{
+		mOut = out;
+		mWidth = width;
+		mHeight = height;
+		mScale = scale;
+
+		while ((1 << mColorBits) < colors && mColorBits < 8)
+		{
+			++mColorBits;
+		}
+
+		WriteString("GIF89a");
+
+		WriteShort(width * scale);
+		WriteShort(height * scale);
+		mOut.write(0x80 | ((mColorBits - 1) << 4) | (mColorBits - 1)); // global color table
+		mOut.write(0);
+		mOut.write(0);
+
+		for (int i = 0; i < (1 << mColorBits); ++i)
+		{
+			int c = i < colors ? palette[i] : 0;
+			mOut.write((c >> 16) & 0xFF);
+			mOut.write((c >> 8) & 0xFF);
+			mOut.write(c & 0xFF);
+		}
+
+		// NETSCAPE2.0, loop forever
+		mOut.write(0x21);
+		mOut.write(0xFF);
+		mOut.write(11);
+		WriteString("NETSCAPE2.0");
+		mOut.write(3);
+		mOut.write(1);
+		WriteShort(0);
+		mOut.write(0);
+	}
+
+	public void AddFrame(byte[] indices, int delayCentiseconds) throws IOException
+	{
+		// graphic control extension
+		mOut.write(0x21);
+		mOut.write(0xF9);
+		mOut.write(4);
+		mOut.write(0);
+		WriteShort(Math.max(2, Math.min(0xFFFF, delayCentiseconds)));
+		mOut.write(0);
+		mOut.write(0);
+
+		// image descriptor
+		mOut.write(0x2C);
+		WriteShort(0);
+		WriteShort(0);
+		WriteShort(mWidth * mScale);
+		WriteShort(mHeight * mScale);
+		mOut.write(0);
+
+		WriteLzw(indices);
+	}
+
+	public void Finish() throws IOException
+	{
+		mOut.write(0x3B);
+		mOut.flush();
+	}
+
+	private void WriteLzw(byte[] indices) throws IOException
+	{
+		int minCodeSize = Math.max(2, mColorBits);
+		int clearCode = 1 << minCodeSize;
+		int codeSize = minCodeSize + 1;
+		int nextCode = clearCode + 2;
+		int prefix = -1;
+
+		mOut.write(minCodeSize);
+		mBlockSize = 0;
+		mBitBuffer = 0;
+		mBitCount = 0;
+
+		Arrays.fill(mHashKeys, -1);
+		WriteCode(clearCode, codeSize);
+
+		int scaledWidth = mWidth * mScale;
+
+		for (int y = 0; y < mHeight * mScale; ++y)
+		{
+			int row = (y / mScale) * mWidth;
+
+			for (int x = 0; x < scaledWidth; ++x)
+			{
+				int k = indices[row + x / mScale] & 0xFF;
+
+				if (prefix < 0)
+				{
+					prefix = k;
+					continue;
+				}
+
+				int key = (prefix << 8) | k;
+				int h = (key * 31) % HASH_SIZE;
+
+				while (mHashKeys[h] != -1 && mHashKeys[h] != key)
+				{
+					if (++h == HASH_SIZE) h = 0;
+				}
+
+				if (mHashKeys[h] == key)
+				{
+					prefix = mHashCodes[h];
+					continue;
+				}
+
+				WriteCode(prefix, codeSize);
+
+				if (nextCode < MAX_CODES)
+				{
+					mHashKeys[h] = key;
+					mHashCodes[h] = nextCode++;
+
+					if (nextCode > (1 << codeSize) && codeSize < 12) ++codeSize;
+				}
+				else
+				{
+					WriteCode(clearCode, codeSize);
+					Arrays.fill(mHashKeys, -1);
+					codeSize = minCodeSize + 1;
+					nextCode = clearCode + 2;
+				}
+
+				prefix = k;
+			}
+		}
+
+		WriteCode(prefix, codeSize);
+		WriteCode(clearCode + 1, codeSize);
+
+		if (mBitCount > 0) WriteByte(mBitBuffer & 0xFF);
+		FlushBlock();
+
+		mOut.write(0);
+	}
+
+	private void WriteCode(int code, int size) throws IOException
+	{
+		mBitBuffer |= code << mBitCount;
+		mBitCount += size;
+
+		while (mBitCount >= 8)
+		{
+			WriteByte(mBitBuffer & 0xFF);
+			mBitBuffer >>>= 8;
+			mBitCount -= 8;
+		}
+	}
+
+	private void WriteByte(int b) throws IOException
+	{
+		mBlock[mBlockSize++] = (byte) b;
+		if (mBlockSize == mBlock.length) FlushBlock();
+	}
+
+	private void FlushBlock() throws IOException
+	{
+		if (mBlockSize == 0) return;
+
+		mOut.write(mBlockSize);
+		mOut.write(mBlock, 0, mBlockSize);
+		mBlockSize = 0;
+	}
+
+	private void WriteShort(int value) throws IOException
+	{
+		mOut.write(value & 0xFF);
+		mOut.write((value >> 8) & 0xFF);
+	}
+
+	private void WriteString(String s) throws IOException
+	{
+		for (int i = 0; i < s.length(); ++i)
+		{
+			mOut.write(s.charAt(i));
+		}
+	}
+}
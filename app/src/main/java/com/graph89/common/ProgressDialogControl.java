@@ -20,10 +20,18 @@
 
 package com.graph89.common;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import android.app.ProgressDialog;
 
 public class ProgressDialogControl
 {
-	public ProgressDialog	Dialog	= null;
-	public String			Message	= null;
+	public ProgressDialog						Dialog		= null;
+	public String								Message		= null;
+
+	// Messages posted by the engine thread, the UI thread shows the latest
+	public final ConcurrentLinkedQueue<String>	Posted		= new ConcurrentLinkedQueue<String>();
+
+	// When set, the dialog has a Cancel button and leaves the screen visible
+	public volatile Runnable					OnCancel	= null;
 }
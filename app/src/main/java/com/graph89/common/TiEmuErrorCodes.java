@@ -47,8 +47,20 @@ public class TiEmuErrorCodes
 				return "ERR_CANT_UPGRADE";
 			case 779:
 				return "ERR_INVALID_ROM";
+			case 780:
+				return "ERR_CANT_OPEN_STATE";
+			case 781:
+				return "ERR_REVISION_MATCH";
+			case 782:
+				return "ERR_HEADER_MATCH";
+			case 783:
+				return "ERR_STATE_MATCH";
 			case 800:
 				return "Not .89u or .rom";
+			case 801:
+				return "Image verification failed";
+			case 802:
+				return "State file checksum mismatch";
 
 			default:
 				return Integer.toString(code) + " - Unknown...";
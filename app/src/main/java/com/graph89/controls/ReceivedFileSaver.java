@@ -33,6 +33,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.eanema.graph89.R;
 import com.graph89.common.Util;
@@ -74,7 +75,9 @@ public class ReceivedFileSaver
 		filenameEdit.setText(TIEmuThread.ReceivedFileName);
 		filenameEdit.setSelection(TIEmuThread.ReceivedFileName.length());
 
-		final AlertDialog d = new AlertDialog.Builder(mContext).setView(view).setTitle("Save Received File").setPositiveButton(android.R.string.ok, new Dialog.OnClickListener()
+		String title = "Save Received File (" + TIEmuThread.ReceivedFileSize + " bytes)";
+
+		final AlertDialog d = new AlertDialog.Builder(mContext).setView(view).setTitle(title).setPositiveButton(android.R.string.ok, new Dialog.OnClickListener()
 		{
 			@Override
 			public void onClick(DialogInterface d, int which)
@@ -85,6 +88,7 @@ public class ReceivedFileSaver
 			@Override
 			public void onClick(DialogInterface d, int which)
 			{
+				EmulatorActivity.nativeTiEmuDropReceivedFile();
 				activity.HideKeyboard();
 			}
 		}).create();
@@ -105,10 +109,13 @@ public class ReceivedFileSaver
 
 						if (filename.length() > 0)
 						{
-							File src = new File(TIEmuThread.ReceivedFilePath);
-
 							File dest = new File(new File(mReceivedFolder), filename);
-							src.renameTo(dest);
+
+							// written once, straight from the received data
+							if (EmulatorActivity.nativeTiEmuSaveReceivedFile(dest.getAbsolutePath()) != 0)
+							{
+								Toast.makeText(mContext, "Error saving " + filename, Toast.LENGTH_LONG).show();
+							}
 
 							MediaScannerConnection.scanFile(mContext, new String[] { dest.getAbsolutePath() }, null, new MediaScannerConnection.OnScanCompletedListener()
 							{
@@ -47,6 +47,8 @@ import com.graph89.emulationcore.EmulatorActivity;
 
 public class ScreenshotTaker
 {
+	private static final int	SCREENSHOT_ZOOM	= 3;
+
 	private Context		mContext			= null;
 
 	public ScreenshotTaker(Context context)
@@ -114,7 +116,7 @@ public class ScreenshotTaker
 						{
 							if (!filename.endsWith(".png")) filename += ".png";
 
-							Bitmap image = EmulatorActivity.CurrentSkin.Screen.getScreenShot();
+							Bitmap image = EmulatorActivity.CurrentSkin.Screen.getScreenShot(SCREENSHOT_ZOOM);
 							if (image != null)
 							{
 								try
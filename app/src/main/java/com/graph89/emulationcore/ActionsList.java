@@ -41,6 +41,7 @@ import com.graph89.common.TI84Specific;
 import com.graph89.common.TI89Specific;
 import com.graph89.common.TI92PSpecific;
 import com.graph89.common.TI92Specific;
+import com.graph89.common.Util;
 import com.graph89.common.V200Specific;
 import com.graph89.controls.AboutScreen;
 import com.graph89.controls.FilePickerActivity;
@@ -60,11 +61,20 @@ public class ActionsList extends ListView
 	public static final int			LOAD_STATE				= 5;
 	public static final int			SAVE_STATE				= 6;
 	public static final int			RESET					= 7;
-	public static final int			BACKUP_MANAGER			= 8;
-	public static final int			ROM_MANAGER				= 9;
-	public static final int 		INSTANCE_CONFIGURATION	= 10;
-	public static final int			GLOBAL_CONFIGURATION	= 11;
-	public static final int			ABOUT					= 12;
+	public static final int			RECORD_INPUT			= 8;
+	public static final int			REPLAY_INPUT			= 9;
+	public static final int			FAST_FORWARD			= 10;
+	public static final int			RECORD_SCREEN			= 11;
+	public static final int			BACKUP_MANAGER			= 12;
+	public static final int			ROM_MANAGER				= 13;
+	public static final int 		INSTANCE_CONFIGURATION	= 14;
+	public static final int			GLOBAL_CONFIGURATION	= 15;
+	public static final int			ABOUT					= 16;
+
+	private static final String		RECORD_INPUT_TEXT		= "Record Input";
+	private static final String		REPLAY_INPUT_TEXT		= "Replay Input";
+	private static final String		FAST_FORWARD_TEXT		= "Fast Forward";
+	private static final String		RECORD_SCREEN_TEXT		= "Record Screen";
 
 	private Context					mContext				= null;
 	private ListViewAdapter			mAdapter				= null;
@@ -80,6 +90,10 @@ public class ActionsList extends ListView
 		ActionEntries.add(new ListItem(LOAD_STATE, "Load State"));
 		ActionEntries.add(new ListItem(SAVE_STATE, "Save State"));
 		ActionEntries.add(new ListItem(RESET, "Reset"));
+		ActionEntries.add(new ListItem(RECORD_INPUT, RECORD_INPUT_TEXT));
+		ActionEntries.add(new ListItem(REPLAY_INPUT, REPLAY_INPUT_TEXT));
+		ActionEntries.add(new ListItem(FAST_FORWARD, FAST_FORWARD_TEXT));
+		ActionEntries.add(new ListItem(RECORD_SCREEN, RECORD_SCREEN_TEXT));
 		ActionEntries.add(new ListItem(BACKUP_MANAGER, "Backup Manager"));
 		ActionEntries.add(new ListItem(ROM_MANAGER, "ROM Manager"));
 		ActionEntries.add(new ListItem(INSTANCE_CONFIGURATION, "ROM Configuration"));
@@ -168,6 +182,48 @@ public class ActionsList extends ListView
 							activity.HideActions();
 						}
 						break;
+					case RECORD_INPUT:
+					case REPLAY_INPUT:
+						if (EmulatorActivity.IsEmulating)
+						{
+							if (EmulatorThread.InputLogMode != EmulatorThread.INPUT_LOG_OFF)
+							{
+								EmulatorThread.StopInputLog = true;
+							}
+							else if (position == RECORD_INPUT)
+							{
+								EmulatorThread.RecordInput = true;
+							}
+							else
+							{
+								EmulatorThread.ReplayInput = true;
+							}
+							activity.HideActions();
+						}
+						break;
+					case FAST_FORWARD:
+						if (EmulatorActivity.IsEmulating)
+						{
+							EmulatorThread.FastForward = !EmulatorThread.FastForward;
+							activity.HideActions();
+						}
+						break;
+					case RECORD_SCREEN:
+						if (EmulatorActivity.IsEmulating)
+						{
+							ScreenRecorder recorder = ScreenRecorder.Current;
+
+							if (recorder == null)
+							{
+								ScreenRecorder.Current = new ScreenRecorder(EmulatorActivity.CurrentSkin.CalculatorInfo.ScreenWidth, EmulatorActivity.CurrentSkin.CalculatorInfo.ScreenHeight);
+							}
+							else
+							{
+								recorder.Save(activity, Util.getTimestamp() + ".gif");
+							}
+							activity.HideActions();
+						}
+						break;
 					case ROM_MANAGER:
 					{
 						Intent intent = new Intent(activity, RomManagerActivity.class);
@@ -211,6 +267,17 @@ public class ActionsList extends ListView
 			EmulatorActivity.UIStateManagerObj.ActionsListIntstance.setBackgroundColor(0xDA000000);
 
 			ResetVisibility(true);
+
+			boolean isRecording = EmulatorThread.InputLogMode == EmulatorThread.INPUT_LOG_RECORD;
+			boolean isReplaying = EmulatorThread.InputLogMode == EmulatorThread.INPUT_LOG_REPLAY;
+
+			ActionEntries.get(RECORD_INPUT).ItemName = isRecording ? "Stop Recording Input" : RECORD_INPUT_TEXT;
+			ActionEntries.get(REPLAY_INPUT).ItemName = isReplaying ? "Stop Replaying Input" : REPLAY_INPUT_TEXT;
+			ActionEntries.get(RECORD_INPUT).IsActive = !isReplaying;
+			ActionEntries.get(REPLAY_INPUT).IsActive = !isRecording;
+
+			ActionEntries.get(FAST_FORWARD).ItemName = EmulatorThread.FastForward ? "Normal Speed" : FAST_FORWARD_TEXT;
+			ActionEntries.get(RECORD_SCREEN).ItemName = ScreenRecorder.Current != null ? "Stop Recording Screen" : RECORD_SCREEN_TEXT;
 		}
 		else
 		{
@@ -0,0 +1,179 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+/**
+ * Picks the engine speed from what the calculator is doing. The busy
+ * indicator duty cycle and the LCD change rate raise the level, a long
+ * period without touches or activity lowers it, and a low battery or a hot
+ * device caps it. Going up is immediate, going down only happens after the
+ * lower level has been wanted for HOLD_MS.
+ */
+public class CpuGovernor
+{
+	public static final int		LEVEL_IDLE			= 0;
+	public static final int		LEVEL_NORMAL		= 1;
+	public static final int		LEVEL_BOOST			= 2;
+
+	private static final float[]	SLICE_SCALES	= { 0.25f, 1.0f, 1.0f };
+
+	private static final long	HOLD_MS				= 3000;
+	private static final long	IDLE_AFTER_MS		= 30 * 1000;
+	private static final long	POWER_CHECK_MS		= 30 * 1000;
+	private static final int	LOW_BATTERY_PERCENT	= 20;
+
+	private static final float	BUSY_ALPHA			= 0.1f;
+	private static final float	BOOST_BUSY_DUTY		= 0.5f;
+	private static final float	BOOST_FRAME_RATE	= 8.0f;
+	private static final float	IDLE_BUSY_DUTY		= 0.05f;
+	private static final float	IDLE_FRAME_RATE		= 0.5f;
+
+	private Context				mContext			= null;
+
+	private int					mLevel				= LEVEL_NORMAL;
+	private long				mLowerSince			= 0;
+
+	private float				mBusyDuty			= 0;
+	private float				mFrameRate			= 0;
+	private int					mLastFrameChanges	= 0;
+	private long				mLastFrameSample	= 0;
+
+	private boolean				mPowerConstrained	= false;
+	private long				mLastPowerCheck		= 0;
+
+	public CpuGovernor(Context context)
+	{
+		mContext = context;
+		EmulatorActivity.nativeSetSliceScale(SLICE_SCALES[mLevel]);
+	}
+
+	public int getLevel()
+	{
+		return mLevel;
+	}
+
+	public boolean isBoosting()
+	{
+		return mLevel == LEVEL_BOOST;
+	}
+
+	// Called once per engine loop
+	public void Update(boolean isBusy, int frameChanges, long idleMillis)
+	{
+		long now = System.currentTimeMillis();
+
+		mBusyDuty += ((isBusy ? 1.0f : 0.0f) - mBusyDuty) * BUSY_ALPHA;
+
+		if (mLastFrameSample == 0)
+		{
+			mLastFrameSample = now;
+			mLastFrameChanges = frameChanges;
+		}
+		else if (now - mLastFrameSample >= 500)
+		{
+			float rate = (frameChanges - mLastFrameChanges) * 1000.0f / (now - mLastFrameSample);
+			mFrameRate += (rate - mFrameRate) * 0.5f;
+			mLastFrameSample = now;
+			mLastFrameChanges = frameChanges;
+		}
+
+		if (now - mLastPowerCheck >= POWER_CHECK_MS)
+		{
+			mPowerConstrained = isPowerConstrained();
+			mLastPowerCheck = now;
+		}
+
+		int target = LEVEL_NORMAL;
+
+		if (mBusyDuty > BOOST_BUSY_DUTY || mFrameRate > BOOST_FRAME_RATE)
+		{
+			target = LEVEL_BOOST;
+		}
+		else if (idleMillis > IDLE_AFTER_MS && mBusyDuty < IDLE_BUSY_DUTY && mFrameRate < IDLE_FRAME_RATE)
+		{
+			target = LEVEL_IDLE;
+		}
+
+		if (mPowerConstrained && target == LEVEL_BOOST)
+		{
+			target = LEVEL_NORMAL;
+		}
+
+		if (target > mLevel)
+		{
+			SetLevel(target);
+		}
+		else if (target < mLevel)
+		{
+			if (mLowerSince == 0)
+			{
+				mLowerSince = now;
+			}
+			else if (now - mLowerSince >= HOLD_MS)
+			{
+				SetLevel(target);
+			}
+		}
+		else
+		{
+			mLowerSince = 0;
+		}
+	}
+
+	private void SetLevel(int level)
+	{
+		mLowerSince = 0;
+
+		if (level == mLevel) return;
+
+		mLevel = level;
+		EmulatorActivity.nativeSetSliceScale(SLICE_SCALES[level]);
+	}
+
+	private boolean isPowerConstrained()
+	{
+		Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+		if (battery != null)
+		{
+			int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+			int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+			boolean plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+			if (!plugged && level >= 0 && scale > 0 && level * 100 / scale < LOW_BATTERY_PERCENT) return true;
+		}
+
+		if (Build.VERSION.SDK_INT >= 29)
+		{
+			PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+
+			if (pm != null && pm.getCurrentThermalStatus() >= PowerManager.THERMAL_STATUS_MODERATE) return true;
+		}
+
+		return false;
+	}
+}
@@ -30,6 +30,7 @@ import java.util.UUID;
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -42,6 +43,7 @@ import android.os.Vibrator;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
+import android.view.Gravity;
 import android.view.HapticFeedbackConstants;
 import android.view.KeyEvent;
 import android.view.SoundEffectConstants;
@@ -83,6 +85,7 @@ public class EmulatorActivity extends Graph89ActivityBase
 	public static final int						HANDLER_UPDATEPROGRESSDIALOG	= Graph89ActivityBase.MAX_HANDLER_ID + 3;
 	public static final int						HANDLER_HIDEPROGRESSDIALOG		= Graph89ActivityBase.MAX_HANDLER_ID + 4;
 	public static final int						HANDLER_TERMINATE				= Graph89ActivityBase.MAX_HANDLER_ID + 5;
+	public static final int						HANDLER_INSTANCEPROBLEMS		= Graph89ActivityBase.MAX_HANDLER_ID + 6;
 	// //////////////OnActivityResult Codes/////////////////////////////////////
 	public static final int						INSTALL_APP						= 1;
 	// /////////////////////////////////////////////////////////////////////////
@@ -296,9 +299,10 @@ public class EmulatorActivity extends Graph89ActivityBase
 		else
 		{
 			NoRomsConfigured = false;
-			KillCalc();
+			SuspendCalc();
 
 			GetActiveCalculatorInstance();
+			InstanceValidator.Start(this, CalculatorInstances.GetInstances(), ActiveInstance);
 
 			CheckOrientation();
 			StartCalc();
@@ -321,33 +325,57 @@ public class EmulatorActivity extends Graph89ActivityBase
 			
 			double speedCoefficient = EmulatorActivity.ActiveInstance.Configuration.CPUSpeed / 100.0f;
 			
-			EmulatorActivity.nativeInitGraph89(ActiveInstance.CalculatorType,
+			boolean resumed = EmulatorActivity.nativeInitGraph89(ActiveInstance.CalculatorType, ActiveInstance.ImageFilePath, ActiveInstance.StateFilePath,
 					CurrentSkin.Screen.mRawScreenWidth, CurrentSkin.Screen.mRawScreenHeight, CurrentSkin.Screen.Zoom, 
 					Util.Bool2Int(ActiveInstance.Configuration.EnableGrayScale), Util.Bool2Int(ActiveInstance.Configuration.UseLCDGrid), 
-					CurrentSkin.LCDPixelON, CurrentSkin.LCDPixelOFF, CurrentSkin.LCDGRID, speedCoefficient, Directories.getTempDirectory(this));
+					CurrentSkin.LCDPixelON, CurrentSkin.LCDPixelOFF, CurrentSkin.LCDGRID, speedCoefficient, Directories.getTempDirectory(this)) != 0;
 			
 			if (CalculatorTypes.isTIEmu(ActiveInstance.CalculatorType))
 			{
-				EmulatorThreadObject = new TIEmuThread(this, ActiveInstance);
+				EmulatorThreadObject = new TIEmuThread(this, ActiveInstance, resumed);
 			}
 			else if (CalculatorTypes.isTilem(ActiveInstance.CalculatorType))
 			{
-				EmulatorThreadObject = new TilEmThread(this, ActiveInstance);
+				EmulatorThreadObject = new TilEmThread(this, ActiveInstance, resumed);
 			}
 		}
 	}
 
-	private void KillCalc()
+	private boolean StopCalc()
 	{
+		boolean wasEmulating = IsEmulating;
+
 		if (EmulatorThreadObject != null)
 		{
 			EmulatorThreadObject.Kill();
 			EmulatorThreadObject = null;
 		}
-		
+
+		IsEmulating = false;
+		return wasEmulating;
+	}
+
+	private void KillCalc()
+	{
+		StopCalc();
 		EmulatorActivity.nativeCleanGraph89();
 	}
 
+	// Keeps the instance that was running in native memory, up to the standby
+	// limit, so that switching back to it skips the image and state load.
+	// One that didn't get to run is freed.
+	private void SuspendCalc()
+	{
+		int standbyMemory = 0;
+
+		if (StopCalc())
+		{
+			standbyMemory = ConfigurationHelper.getInt(this, ConfigurationHelper.CONF_KEY_STANDBY_MEMORY, ConfigurationHelper.CONF_DEFAULT_STANDBY_MEMORY);
+		}
+
+		EmulatorActivity.nativeSuspendGraph89(standbyMemory);
+	}
+
 	private void EngineExit()
 	{
 		KillCalc();
@@ -789,6 +817,11 @@ public class EmulatorActivity extends Graph89ActivityBase
 		mHandler.sendEmptyMessage(EmulatorActivity.HANDLER_TERMINATE);
 	}
 
+	public void HandlerInstanceProblems(String report)
+	{
+		mHandler.obtainMessage(EmulatorActivity.HANDLER_INSTANCEPROBLEMS, report).sendToTarget();
+	}
+
 	private void ReceiveFile()
 	{
 		ReceivedFileSaver s = new ReceivedFileSaver(this, Directories.getReceivedDirectory(this));
@@ -802,11 +835,35 @@ public class EmulatorActivity extends Graph89ActivityBase
 		ProgressDialogObj.Dialog = new ProgressDialog(this);
 		ProgressDialogObj.Dialog.setMessage(ProgressDialogObj.Message);
 		ProgressDialogObj.Dialog.setCancelable(false);
+
+		final Runnable onCancel = ProgressDialogObj.OnCancel;
+
+		if (onCancel != null)
+		{
+			// the calculator keeps running underneath, let it be seen
+			ProgressDialogObj.Dialog.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_DIM_BEHIND);
+			ProgressDialogObj.Dialog.getWindow().setGravity(Gravity.BOTTOM);
+			ProgressDialogObj.Dialog.setButton(DialogInterface.BUTTON_NEGATIVE, "Cancel", new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which)
+				{
+					onCancel.run();
+				}
+			});
+		}
+
 		ProgressDialogObj.Dialog.show();
 	}
 
 	private void UpdateProgressDialog()
 	{
+		String posted;
+
+		while ((posted = ProgressDialogObj.Posted.poll()) != null)
+		{
+			ProgressDialogObj.Message = posted;
+		}
+
 		if (ProgressDialogObj.Dialog == null) return;
 		ProgressDialogObj.Dialog.setMessage(ProgressDialogObj.Message);
 	}
@@ -841,20 +898,33 @@ public class EmulatorActivity extends Graph89ActivityBase
 			case EmulatorActivity.HANDLER_TERMINATE:
 				Terminate();
 				break;				
+			case EmulatorActivity.HANDLER_INSTANCEPROBLEMS:
+				Util.ShowAlert(this, "Damaged Instances", (String) msg.obj);
+				break;
 		}
 	}
 
 	// ///////////////////////////////////////////////////////////////////////////////////////////
 
 	//-----common------------------------------------------
-	public native static void nativeInitGraph89(int calc_type, int screen_width, int screen_height, int zoom, int is_grayscale, int is_grid, int pixel_on_color, int pixel_off_color, int grid_color, double speed_coefficient, String tmp_dir);
+	public native static void nativeCancelTransfer();
+	public native static int  nativeInitGraph89(int calc_type, String image_file, String state_file, int screen_width, int screen_height, int zoom, int is_grayscale, int is_grid, int pixel_on_color, int pixel_off_color, int grid_color, double speed_coefficient, String tmp_dir);
+	public native static void nativeSuspendGraph89(int standby_limit_mb);
 	public native static void nativeCleanGraph89();
-	public native static int  nativeInstallROM(String rom_source, String rom_destination, int calc_type, int is_rom);
+	public native static int  nativeCheckInstance(int calc_type, String image_file, String state_file);
+	public native static int  nativeInstallROM(String rom_source, String rom_destination, int calc_type, int is_rom, InstallProgress progress);
 	public native static int  nativeReadEmulatedScreen(byte[] returnFlags);
 	public native static void nativeGetEmulatedScreen(int[] screenBuffer);
+	public native static void nativeGetEmulatedScreenX1(int[] screenBuffer);
+	public native static void nativeRenderScreen(int[] screenBuffer, int zoom);
 	public native static void nativeSendKey(int key, int active);
 	public native static void nativeSendKeys(int[] keys);
 	public native static void nativeUpdateScreenZoom(int zoom);
+	public native static int  nativeInputLogStart(String log_file, int replay);
+	public native static void nativeInputLogStop();
+	public native static int  nativeInputLogMode();
+	public native static long nativeGetEmulatedTime();
+	public native static void nativeSetSliceScale(double scale);
 	
 	//-----tiemu------------------------------------------
 	public native static void nativeTiEmuStep1LoadDefaultConfig();
@@ -865,9 +935,11 @@ public class EmulatorActivity extends Graph89ActivityBase
 	public native static int  nativeTiEmuRunEngine();
 	public native static int  nativeTiEmuSaveState(String filename);
 	public native static void nativeTiEmuSyncClock();
+	public native static int  nativeTiEmuSaveReceivedFile(String filename);
+	public native static void nativeTiEmuDropReceivedFile();
 	public native static void nativeTiEmuPatch(String sr, String version);
 	public native static void nativeTiEmuTurnScreenOn();
-	public native static int  nativeTiEmuUploadFile(String filename);
+	public native static int  nativeTiEmuUploadFiles(String[] filenames, boolean fastInstall, UploadProgress progress);
 	
 	//-----tilem--------------------------------------------
 	public native static int  nativeTilemLoadImage(String path); 
@@ -876,7 +948,7 @@ public class EmulatorActivity extends Graph89ActivityBase
 	public native static int  nativeTilemRunEngine();
 	public native static int  nativeTilemLoadState(String filename);
 	public native static int  nativeTilemSaveState(String rom_filename, String state_filename);
-	public native static int  nativeTilemUploadFile(String filename);
+	public native static int  nativeTilemUploadFiles(String[] filenames, UploadProgress progress);
 	public native static void nativeTilemSyncClock();
 
 	static
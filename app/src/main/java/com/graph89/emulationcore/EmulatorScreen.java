@@ -20,12 +20,15 @@
 package com.graph89.emulationcore;
 
 import java.io.IOException;
+import java.util.Locale;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 
+import com.graph89.common.EmulatorThread;
 import com.graph89.common.SkinBase;
 import com.graph89.common.Util;
 
@@ -44,7 +47,7 @@ public class EmulatorScreen
 	public int							Zoom					= 1;
 	public boolean						IsFullScreen			= false;
 
-	private volatile int[]				ScreenData;
+	private FrameTripleBuffer			mFrames;											//screen thread -> drawing thread
 	private volatile byte[]				Flags;												//b[0] screen_off, b[1] is_busy
 
 	private int							mZoomedScreenWidth		= 0;
@@ -53,12 +56,19 @@ public class EmulatorScreen
 	public int							mRawScreenWidth			= 0;
 	public int							mRawScreenHeight		= 0;
 	private Paint						mDrawingPaint			= null;
+	private Paint						mSpeedPaint				= null;
 
 	private boolean						isBusy					= false;
 	private boolean						isScreenOff				= false;
 	public int							CRC						= 0;
+	public volatile int					FrameChanges			= 0;
 	private int							cntr					= 0;
 
+	// set while a VsyncRenderer draws this screen instead of EmulatorView
+	public volatile boolean				VsyncDriven				= false;
+	private final Object				mVsyncLock				= new Object();
+	private boolean						mVsyncPending			= false;
+
 	public static class EngineScreenParams
 	{
 		int	RawWidth	= 0;
@@ -151,7 +161,7 @@ public class EmulatorScreen
 		ScreenBitmap.BitmapObj = Bitmap.createBitmap(mZoomedScreenWidth, mZoomedScreenHeight, Bitmap.Config.ARGB_8888);
 		ScreenBitmap.BitmapRectangle = new Rect(0, 0, mZoomedScreenWidth, mZoomedScreenHeight);
 
-		ScreenData = new int[mZoomedScreenWidth * mZoomedScreenHeight];
+		mFrames = new FrameTripleBuffer(mZoomedScreenWidth * mZoomedScreenHeight);
 
 		Flags = new byte[6];
 	}
@@ -182,7 +192,7 @@ public class EmulatorScreen
 		ScreenBitmap.BitmapObj = Bitmap.createBitmap(mZoomedScreenWidth, mZoomedScreenHeight, Bitmap.Config.ARGB_8888);
 		ScreenBitmap.BitmapRectangle = new Rect(0, 0, mZoomedScreenWidth, mZoomedScreenHeight);
 
-		ScreenData = new int[mZoomedScreenWidth * mZoomedScreenHeight];
+		mFrames = new FrameTripleBuffer(mZoomedScreenWidth * mZoomedScreenHeight);
 
 		Flags = new byte[6];
 	}
@@ -202,15 +212,64 @@ public class EmulatorScreen
 			isScreenOff = Flags[0] != 0;
 			isBusy = Flags[1] != 0;
 
+			ScreenRecorder recorder = ScreenRecorder.Current;
+			if (recorder != null) recorder.Capture(CRC != newCRC);
+
 			if (CRC != newCRC || cntr % 40 == 0)
 			{
+				if (CRC != newCRC) ++FrameChanges;
 				CRC = newCRC;
-				EmulatorActivity.nativeGetEmulatedScreen(ScreenData);
-				EmulatorActivity.UIStateManagerObj.EmulatorViewIntstance.postInvalidate();
+				EmulatorActivity.nativeGetEmulatedScreen(mFrames.getBackBuffer());
+				mFrames.Publish();
+
+				if (!VsyncDriven)
+				{
+					Invalidate();
+				}
 			}
 		}
 	}
 
+	// Only the LCD layer has to be redrawn once it covers this screen
+	private void Invalidate()
+	{
+		LcdView lcd = EmulatorActivity.UIStateManagerObj.LcdViewInstance;
+
+		if (lcd != null && lcd.getScreen() == this)
+		{
+			lcd.postInvalidate();
+		}
+		else
+		{
+			EmulatorActivity.UIStateManagerObj.EmulatorViewIntstance.postInvalidate();
+		}
+	}
+
+	// Screen thread, paces refresh() to the display when VsyncDriven
+	public void WaitForVsync(long timeoutMillis) throws InterruptedException
+	{
+		synchronized (mVsyncLock)
+		{
+			if (!mVsyncPending) mVsyncLock.wait(timeoutMillis);
+			mVsyncPending = false;
+		}
+	}
+
+	public void SignalVsync()
+	{
+		synchronized (mVsyncLock)
+		{
+			mVsyncPending = true;
+			mVsyncLock.notify();
+		}
+	}
+
+	// True if refresh() completed a frame that hasn't been drawn yet
+	public boolean HasNewFrame()
+	{
+		return mFrames.HasNewFrame();
+	}
+
 	public boolean isBusy()
 	{
 		return isBusy && !isScreenOff();
@@ -221,23 +280,19 @@ public class EmulatorScreen
 		return isScreenOff;
 	}
 
-	public Bitmap getScreenShot()
+	// Renders the last frame read by the screen thread, the live zoom is left alone
+	public Bitmap getScreenShot(int zoom)
 	{
 		synchronized (EmulatorScreen.ScreenChangeLock)
 		{
-			EngineScreenParams.Zoom = 3;
-
-			EmulatorActivity.nativeUpdateScreenZoom(EngineScreenParams.Zoom);
+			int width = EngineScreenParams.RawWidth * zoom;
+			int height = EngineScreenParams.RawHeight * zoom;
 
-			byte[] flags = new byte[6];
+			int[] data = new int[width * height];
 
-			EmulatorActivity.nativeReadEmulatedScreen(flags);
+			EmulatorActivity.nativeRenderScreen(data, zoom);
 
-			int[] data = new int[EngineScreenParams.RawWidth * EngineScreenParams.RawHeight * EngineScreenParams.Zoom * EngineScreenParams.Zoom];
-
-			EmulatorActivity.nativeGetEmulatedScreen(data);
-
-			Bitmap screenshotBitmap = Bitmap.createBitmap(EngineScreenParams.RawWidth * EngineScreenParams.Zoom, EngineScreenParams.RawHeight * EngineScreenParams.Zoom, Bitmap.Config.ARGB_8888);
+			Bitmap screenshotBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
 
 			screenshotBitmap.setPixels(data, 0, screenshotBitmap.getWidth(), 0, 0, screenshotBitmap.getWidth(), screenshotBitmap.getHeight());
 
@@ -245,11 +300,19 @@ public class EmulatorScreen
 		}
 	}
 
+	// Doesn't wait for the screen thread, the bitmap is only uploaded when a new frame was published
 	public void drawScreen(Canvas canvas)
 	{
-		synchronized (EmulatorScreen.ScreenChangeLock)
+		synchronized (ScreenBitmap)
 		{
-			ScreenBitmap.BitmapObj.setPixels(ScreenData, 0, ScreenBitmap.BitmapObj.getWidth(), 0, 0, ScreenBitmap.BitmapObj.getWidth(), ScreenBitmap.BitmapObj.getHeight());
+			if (ScreenBitmap.BitmapObj == null) return;
+
+			int[] frame = mFrames.TakeNewFrame();
+
+			if (frame != null)
+			{
+				ScreenBitmap.BitmapObj.setPixels(frame, 0, ScreenBitmap.BitmapObj.getWidth(), 0, 0, ScreenBitmap.BitmapObj.getWidth(), ScreenBitmap.BitmapObj.getHeight());
+			}
 
 			if (mIntegerZoom)
 			{
@@ -259,15 +322,39 @@ public class EmulatorScreen
 			{
 				canvas.drawBitmap(ScreenBitmap.BitmapObj, ScreenBitmap.BitmapRectangle, DestinationRectangle, mDrawingPaint);
 			}
+
+			if (EmulatorThread.FastForward)
+			{
+				drawSpeedMultiplier(canvas);
+			}
 		}
 	}
 
+	private void drawSpeedMultiplier(Canvas canvas)
+	{
+		if (mSpeedPaint == null)
+		{
+			mSpeedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+			mSpeedPaint.setColor(Color.RED);
+			mSpeedPaint.setTextAlign(Paint.Align.RIGHT);
+			mSpeedPaint.setTextSize(Math.max(12, (DestinationRectangle.bottom - DestinationRectangle.top) / 10));
+		}
+
+		String text = String.format(Locale.US, "x%.1f", EmulatorThread.SpeedMultiplier);
+		canvas.drawText(text, DestinationRectangle.right - 4, DestinationRectangle.top + mSpeedPaint.getTextSize(), mSpeedPaint);
+	}
+
 	public void ReleaseBitmaps()
 	{
-		if (ScreenBitmap != null && ScreenBitmap.BitmapObj != null)
+		if (ScreenBitmap == null) return;
+
+		synchronized (ScreenBitmap)
 		{
-			ScreenBitmap.BitmapObj.recycle();
-			ScreenBitmap.BitmapObj = null;
+			if (ScreenBitmap.BitmapObj != null)
+			{
+				ScreenBitmap.BitmapObj.recycle();
+				ScreenBitmap.BitmapObj = null;
+			}
 		}
 	}
 }
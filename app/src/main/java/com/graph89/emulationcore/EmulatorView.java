@@ -103,7 +103,11 @@ public class EmulatorView extends View implements OnTouchListener
 	{
 		super.onDraw(canvas);
 
-		if (!EmulatorActivity.IsEmulating) return;
+		if (!EmulatorActivity.IsEmulating)
+		{
+			UpdateLcdLayers(null, false);
+			return;
+		}
 
 		if (EmulatorActivity.CurrentSkin.CanvasDimensions.Height != canvas.getHeight() || EmulatorActivity.CurrentSkin.CanvasDimensions.Width != canvas.getWidth())
 		{
@@ -117,23 +121,54 @@ public class EmulatorView extends View implements OnTouchListener
 			}
 		}
 
+		EmulatorScreen screen = EmulatorActivity.CurrentSkin.Screen;
+		boolean vsync = screen != null && EmulatorActivity.ActiveInstance != null && EmulatorActivity.ActiveInstance.Configuration.VsyncRendering;
+
+		// The skin is only redrawn when this view is invalidated, new LCD
+		// frames go to the layer on top of it
+		boolean layered = UpdateLcdLayers(screen, vsync);
+
 		if (EmulatorActivity.CurrentSkin.Screen.IsFullScreen)
 		{
 			canvas.drawColor(EmulatorActivity.CurrentSkin.LCDSpaceBackgroundColor);
-			EmulatorActivity.CurrentSkin.Screen.drawScreen(canvas);
 		}
-		else
+		else if (EmulatorActivity.CurrentSkin.SkinBitmap != null)
 		{
-			if (EmulatorActivity.CurrentSkin.SkinBitmap != null)
-			{
-				canvas.drawBitmap(EmulatorActivity.CurrentSkin.SkinBitmap, 0, 0, null);
-			}
+			canvas.drawBitmap(EmulatorActivity.CurrentSkin.SkinBitmap, 0, 0, null);
+		}
 
-			if (EmulatorActivity.CurrentSkin.Screen != null)
-			{
-				EmulatorActivity.CurrentSkin.Screen.drawScreen(canvas);
-			}
+		if (screen != null && !layered && !screen.VsyncDriven)
+		{
+			screen.drawScreen(canvas);
+		}
+	}
+
+	// Returns true if a layer already draws the LCD. The layers are moved outside of the draw pass.
+	private boolean UpdateLcdLayers(final EmulatorScreen screen, boolean vsync)
+	{
+		final LcdView view = EmulatorActivity.UIStateManagerObj.LcdViewInstance;
+		final LcdSurfaceView surface = EmulatorActivity.UIStateManagerObj.LcdSurfaceViewInstance;
+
+		final EmulatorScreen viewScreen = vsync ? null : screen;
+		final EmulatorScreen surfaceScreen = vsync ? screen : null;
+
+		if (view == null || surface == null) return false;
+
+		boolean attached = view.getScreen() == viewScreen && surface.getScreen() == surfaceScreen;
+
+		if (!attached)
+		{
+			post(new Runnable() {
+				@Override
+				public void run()
+				{
+					view.Attach(viewScreen);
+					surface.Attach(surfaceScreen);
+				}
+			});
 		}
+
+		return attached && screen != null && !vsync;
 	}
 
 	/**
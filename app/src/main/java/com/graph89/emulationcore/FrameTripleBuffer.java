@@ -0,0 +1,73 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free frame exchange between one producer and one consumer. The
+ * producer fills the back buffer and publishes it, the consumer takes the
+ * latest published frame. Neither side ever waits for the other, frames
+ * published faster than they are taken are dropped.
+ */
+public class FrameTripleBuffer
+{
+	private static final int	INDEX_MASK	= 0x3;
+	private static final int	NEW_FRAME	= 0x4;
+
+	private final int[][]		mBuffers;
+
+	// index of the buffer in the middle, plus NEW_FRAME when the producer put it there
+	private final AtomicInteger	mMiddle		= new AtomicInteger(1);
+
+	private int					mBack		= 0;	// producer only
+	private int					mFront		= 2;	// consumer only
+
+	public FrameTripleBuffer(int length)
+	{
+		mBuffers = new int[3][length];
+	}
+
+	// Producer
+	public int[] getBackBuffer()
+	{
+		return mBuffers[mBack];
+	}
+
+	// Producer, makes the back buffer the latest frame
+	public void Publish()
+	{
+		mBack = mMiddle.getAndSet(mBack | NEW_FRAME) & INDEX_MASK;
+	}
+
+	public boolean HasNewFrame()
+	{
+		return (mMiddle.get() & NEW_FRAME) != 0;
+	}
+
+	// Consumer, returns the latest frame, or null if nothing was published since the last call
+	public int[] TakeNewFrame()
+	{
+		if (!HasNewFrame()) return null;
+
+		mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+		return mBuffers[mFront];
+	}
+}
@@ -17,6 +17,7 @@ public class GlobalConfigurationPage extends PreferenceActivity implements OnSha
 	private CheckBoxPreference mPrefFullscreen;
 	private CheckBoxPreference mPrefKeepScreenOn;
 	private SeekBarPreference mPrefAutoOff;
+	private SeekBarPreference mPrefStandbyMemory;
 	private CheckBoxPreference mPrefHapticFeedback;
 	private CheckBoxPreference mPrefAudioFeedback;
 	private CheckBoxPreference mSwipeGestureEnabled;
@@ -66,6 +67,12 @@ public class GlobalConfigurationPage extends PreferenceActivity implements OnSha
 		mPrefAutoOff.ValuePost = " min";
 		mPrefAutoOff.ValueMIN = "Never";
 
+		mPrefStandbyMemory = (SeekBarPreference) getPreferenceScreen().findPreference(ConfigurationHelper.CONF_KEY_STANDBY_MEMORY);
+		mPrefStandbyMemory.setCurrentValue(ConfigurationHelper.getInt(this,
+				ConfigurationHelper.CONF_KEY_STANDBY_MEMORY, ConfigurationHelper.CONF_DEFAULT_STANDBY_MEMORY));
+		mPrefStandbyMemory.ValuePost = " MB";
+		mPrefStandbyMemory.ValueMIN = "Off";
+
 		mPrefHapticFeedback = (CheckBoxPreference) findPreference(ConfigurationHelper.CONF_KEY_HAPTIC_FEEDBACK);
 		mPrefHapticFeedback.setChecked(ConfigurationHelper.getBoolean(this,
 				ConfigurationHelper.CONF_KEY_HAPTIC_FEEDBACK, ConfigurationHelper.CONF_DEFAULT_HAPTIC_FEEDBACK));
@@ -109,6 +116,9 @@ public class GlobalConfigurationPage extends PreferenceActivity implements OnSha
 		} else if (key.equals(mPrefAutoOff.getKey())) {
 			ConfigurationHelper.writeInt(this, ConfigurationHelper.CONF_KEY_AUTO_OFF,
 					mPrefAutoOff.getCurrentValue());
+		} else if (key.equals(mPrefStandbyMemory.getKey())) {
+			ConfigurationHelper.writeInt(this, ConfigurationHelper.CONF_KEY_STANDBY_MEMORY,
+					mPrefStandbyMemory.getCurrentValue());
 		} else if (key.equals(mPrefHapticFeedback.getKey())) {
 			ConfigurationHelper.writeBoolean(this, ConfigurationHelper.CONF_KEY_HAPTIC_FEEDBACK,
 					mPrefHapticFeedback.isChecked());
@@ -0,0 +1,40 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+/**
+ * Receives the progress of nativeInstallROM, which writes the image block
+ * by block and reads it back to verify it. Called on the installer thread
+ * by the native code, only changes of the percentage reach the UI thread.
+ */
+public class InstallProgress
+{
+	private int	mPercent	= -1;
+
+	public void OnProgress(int done, int total)
+	{
+		int percent = total > 0 ? (int) ((long) done * 100 / total) : 0;
+
+		if (percent == mPercent) return;
+
+		mPercent = percent;
+		RomManagerActivity.HandlerInstallProgress(percent);
+	}
+}
@@ -122,6 +122,14 @@ public class InstanceConfigurationPage extends PreferenceActivity implements OnS
 		{
 			mActiveInstance.Configuration.EnableGrayScale = sharedPreferences.getBoolean(CalculatorConfiguration.EnableGrayScaleKey, false);
 		}
+		else if (key.equals(CalculatorConfiguration.VsyncRenderingKey))
+		{
+			mActiveInstance.Configuration.VsyncRendering = sharedPreferences.getBoolean(CalculatorConfiguration.VsyncRenderingKey, false);
+		}
+		else if (key.equals(CalculatorConfiguration.FastInstallKey))
+		{
+			mActiveInstance.Configuration.FastInstall = sharedPreferences.getBoolean(CalculatorConfiguration.FastInstallKey, false);
+		}
 		else if (key.equals(CalculatorConfiguration.CPUSpeedKey))
 		{
 			mActiveInstance.Configuration.CPUSpeed = sharedPreferences.getInt(CalculatorConfiguration.CPUSpeedKey, 100);
@@ -134,6 +142,10 @@ public class InstanceConfigurationPage extends PreferenceActivity implements OnS
 		{
 			mActiveInstance.Configuration.EnergySave = sharedPreferences.getBoolean(CalculatorConfiguration.EnergySaveKey, true);
 		}
+		else if (key.equals(CalculatorConfiguration.AdaptiveSpeedKey))
+		{
+			mActiveInstance.Configuration.AdaptiveSpeed = sharedPreferences.getBoolean(CalculatorConfiguration.AdaptiveSpeedKey, false);
+		}
 		else if (key.equals(CalculatorConfiguration.LCDColorKey))
 		{
 			mActiveInstance.Configuration.LCDColor = sharedPreferences.getInt(CalculatorConfiguration.LCDColorKey, 0xFFA5BAA0);
@@ -227,8 +239,11 @@ public class InstanceConfigurationPage extends PreferenceActivity implements OnS
 		editor.putInt(CalculatorConfiguration.CPUSpeedKey, mActiveInstance.Configuration.CPUSpeed);
 		editor.putBoolean(CalculatorConfiguration.OverclockWhenBusyKey, mActiveInstance.Configuration.OverclockWhenBusy);
 		editor.putBoolean(CalculatorConfiguration.EnergySaveKey, mActiveInstance.Configuration.EnergySave);
+		editor.putBoolean(CalculatorConfiguration.AdaptiveSpeedKey, mActiveInstance.Configuration.AdaptiveSpeed);
 		editor.putBoolean(CalculatorConfiguration.SaveStateOnExitKey, mActiveInstance.Configuration.SaveStateOnExit);
 		editor.putBoolean(CalculatorConfiguration.EnableGrayScaleKey, mActiveInstance.Configuration.EnableGrayScale);
+		editor.putBoolean(CalculatorConfiguration.VsyncRenderingKey, mActiveInstance.Configuration.VsyncRendering);
+		editor.putBoolean(CalculatorConfiguration.FastInstallKey, mActiveInstance.Configuration.FastInstall);
 
 		editor.putInt(CalculatorConfiguration.LCDColorKey, mActiveInstance.Configuration.LCDColor);
 		editor.putInt(CalculatorConfiguration.PixelOffKey, mActiveInstance.Configuration.PixelOff);
@@ -286,6 +301,13 @@ public class InstanceConfigurationPage extends PreferenceActivity implements OnS
 			d.removePreference(mOrientationList);
 		}
 
+		// direct injection only exists for the AMS calculators
+		if (CalculatorTypes.isTilem(mActiveInstance.CalculatorType) || mActiveInstance.CalculatorType == CalculatorTypes.TI92)
+		{
+			PreferenceCategory e = (PreferenceCategory) findPreference("CONFIG_CAT_EMULATION_SETTINGS");
+			e.removePreference(findPreference(CalculatorConfiguration.FastInstallKey));
+		}
+
 		if (mActiveInstance.Configuration.UseLCDGrid)
 		{
 			d.addPreference(mGridColor);
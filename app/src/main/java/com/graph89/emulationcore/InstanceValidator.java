@@ -0,0 +1,173 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.graph89.common.CalculatorInstance;
+import com.graph89.common.TiEmuErrorCodes;
+
+/**
+ * Checks the image and state file of every instance once per process, on a
+ * small pool, so that a damaged file is reported when the app starts rather
+ * than when the engine fails to load it. The checks are the ones the engines
+ * make on load plus the checksum written next to every saved state. The
+ * files of the instance about to start are read through at the same time,
+ * which puts them in the page cache before the engine thread asks for them.
+ */
+public class InstanceValidator
+{
+	private static final int	MAX_THREADS	= 4;
+	private static final int	WARM_BLOCK	= 65536;
+
+	private static boolean		sStarted	= false;
+
+	public static void Start(final EmulatorActivity activity, List<CalculatorInstance> instances, final CalculatorInstance active)
+	{
+		if (sStarted || instances == null || instances.isEmpty()) return;
+		sStarted = true;
+
+		final List<CalculatorInstance> toCheck = new ArrayList<CalculatorInstance>(instances);
+
+		Thread coordinator = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+				ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+				try
+				{
+					if (active != null) pool.execute(new Warmer(active));
+
+					List<Callable<String>> checks = new ArrayList<Callable<String>>();
+					for (CalculatorInstance instance : toCheck)
+					{
+						checks.add(new Check(instance));
+					}
+
+					StringBuilder report = new StringBuilder();
+					for (Future<String> result : pool.invokeAll(checks))
+					{
+						String problem = result.get();
+						if (problem != null) report.append(problem).append("\n\n");
+					}
+
+					if (report.length() > 0) activity.HandlerInstanceProblems(report.toString().trim());
+				}
+				catch (Exception e)
+				{
+				}
+				finally
+				{
+					pool.shutdown();
+				}
+			}
+		}, "Graph89 Validator");
+
+		coordinator.setPriority(Thread.MIN_PRIORITY);
+		coordinator.start();
+	}
+
+	private static class Check implements Callable<String>
+	{
+		private final CalculatorInstance	mInstance;
+
+		public Check(CalculatorInstance instance)
+		{
+			mInstance = instance;
+		}
+
+		@Override
+		public String call()
+		{
+			if (mInstance.ImageFilePath == null || !new File(mInstance.ImageFilePath).isFile())
+			{
+				return mInstance.Title + ": the image file is missing.";
+			}
+
+			String state = "";
+			if (mInstance.WasStateFileCreated && mInstance.StateFilePath != null && new File(mInstance.StateFilePath).isFile())
+			{
+				state = mInstance.StateFilePath;
+			}
+
+			int err = EmulatorActivity.nativeCheckInstance(mInstance.CalculatorType, mInstance.ImageFilePath, state);
+			if (err == 0) return null;
+
+			return mInstance.Title + ": the image or state file is damaged. Error code: " + TiEmuErrorCodes.GetErrorCode(err);
+		}
+	}
+
+	// Only the reading matters, the data is dropped
+	private static class Warmer implements Runnable
+	{
+		private final CalculatorInstance	mInstance;
+
+		public Warmer(CalculatorInstance instance)
+		{
+			mInstance = instance;
+		}
+
+		@Override
+		public void run()
+		{
+			byte[] buffer = new byte[WARM_BLOCK];
+
+			Read(mInstance.ImageFilePath, buffer);
+			if (mInstance.WasStateFileCreated) Read(mInstance.StateFilePath, buffer);
+		}
+
+		private void Read(String path, byte[] buffer)
+		{
+			if (path == null) return;
+
+			FileInputStream in = null;
+
+			try
+			{
+				in = new FileInputStream(path);
+				while (in.read(buffer) > 0)
+				{
+				}
+			}
+			catch (Exception e)
+			{
+			}
+			finally
+			{
+				try
+				{
+					if (in != null) in.close();
+				}
+				catch (Exception e)
+				{
+				}
+			}
+		}
+	}
+}
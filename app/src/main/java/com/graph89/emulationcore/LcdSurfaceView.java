@@ -0,0 +1,123 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+
+// Surface over the LCD area for the vsync renderer. Touches go through to EmulatorView.
+public class LcdSurfaceView extends SurfaceView implements SurfaceHolder.Callback
+{
+	private EmulatorScreen	mScreen		= null;
+	private VsyncRenderer	mRenderer	= null;
+
+	public LcdSurfaceView(Context context)
+	{
+		super(context);
+		Init();
+	}
+
+	public LcdSurfaceView(Context context, AttributeSet attrs)
+	{
+		super(context, attrs);
+		Init();
+	}
+
+	public LcdSurfaceView(Context context, AttributeSet attrs, int defStyle)
+	{
+		super(context, attrs, defStyle);
+		Init();
+	}
+
+	private void Init()
+	{
+		getHolder().addCallback(this);
+		setClickable(false);
+		setFocusable(false);
+	}
+
+	public EmulatorScreen getScreen()
+	{
+		return mScreen;
+	}
+
+	// UI thread. Covers the LCD of screen and renders it, null hides the surface.
+	public void Attach(EmulatorScreen screen)
+	{
+		if (screen == mScreen) return;
+
+		StopRenderer();
+		mScreen = screen;
+
+		if (screen == null)
+		{
+			setVisibility(View.GONE);
+			return;
+		}
+
+		LcdView.PlaceOver(this, screen.DestinationRectangle);
+
+		if (getVisibility() == View.VISIBLE && getHolder().getSurface().isValid())
+		{
+			StartRenderer();
+		}
+		else
+		{
+			setVisibility(View.VISIBLE);
+		}
+	}
+
+	@Override
+	public void surfaceCreated(SurfaceHolder holder)
+	{
+		StartRenderer();
+	}
+
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
+	{
+		if (mRenderer != null) mRenderer.Redraw();
+	}
+
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder)
+	{
+		StopRenderer();
+	}
+
+	private void StartRenderer()
+	{
+		if (mScreen == null || mRenderer != null) return;
+
+		mRenderer = new VsyncRenderer(getHolder(), mScreen);
+		mRenderer.Start();
+	}
+
+	private void StopRenderer()
+	{
+		if (mRenderer == null) return;
+
+		mRenderer.Stop();
+		mRenderer = null;
+	}
+}
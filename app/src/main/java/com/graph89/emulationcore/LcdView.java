@@ -0,0 +1,101 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.RelativeLayout;
+
+// The LCD in a view of its own, so a new frame doesn't redraw the skin in EmulatorView
+public class LcdView extends View
+{
+	private volatile EmulatorScreen	mScreen	= null;
+
+	public LcdView(Context context)
+	{
+		super(context);
+		Init();
+	}
+
+	public LcdView(Context context, AttributeSet attrs)
+	{
+		super(context, attrs);
+		Init();
+	}
+
+	public LcdView(Context context, AttributeSet attrs, int defStyle)
+	{
+		super(context, attrs, defStyle);
+		Init();
+	}
+
+	private void Init()
+	{
+		setClickable(false);
+		setFocusable(false);
+	}
+
+	public EmulatorScreen getScreen()
+	{
+		return mScreen;
+	}
+
+	// UI thread. Covers the LCD of screen and draws it, null hides the view.
+	public void Attach(EmulatorScreen screen)
+	{
+		if (screen == mScreen) return;
+
+		mScreen = screen;
+
+		if (screen == null)
+		{
+			setVisibility(View.GONE);
+			return;
+		}
+
+		PlaceOver(this, screen.DestinationRectangle);
+		setVisibility(View.VISIBLE);
+		invalidate();
+	}
+
+	@Override
+	public void onDraw(Canvas canvas)
+	{
+		super.onDraw(canvas);
+
+		EmulatorScreen screen = mScreen;
+
+		if (screen == null || screen.VsyncDriven) return;
+
+		canvas.translate(-screen.DestinationRectangle.left, -screen.DestinationRectangle.top);
+		screen.drawScreen(canvas);
+	}
+
+	static void PlaceOver(View view, Rect rect)
+	{
+		RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(rect.width(), rect.height());
+		params.leftMargin = rect.left;
+		params.topMargin = rect.top;
+		view.setLayoutParams(params);
+	}
+}
@@ -25,10 +25,13 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -61,6 +64,7 @@ import com.graph89.common.CalculatorInstance;
 import com.graph89.common.CalculatorInstanceHelper;
 import com.graph89.common.CalculatorTypes;
 import com.graph89.common.Directories;
+import com.graph89.common.EmulatorThread;
 import com.graph89.common.TiEmuErrorCodes;
 import com.graph89.common.Util;
 import com.graph89.controls.ControlBar;
@@ -72,6 +76,25 @@ public class RomManagerActivity extends Graph89ActivityBase
 
 	public static final int				HANDLER_UPDATE_BROWSEBUTTON	= MAX_HANDLER_ID + 1;
 	public static final int				HANDLER_REFRESHUI			= MAX_HANDLER_ID + 2;
+	public static final int				HANDLER_INSTALLPROGRESS		= MAX_HANDLER_ID + 3;
+	public static final int				HANDLER_INSTALLFINISHED		= MAX_HANDLER_ID + 4;
+
+	// One image is written at a time, away from the UI thread
+	private static final ExecutorService	sInstaller					= Executors.newSingleThreadExecutor();
+
+	// The install outlives the activity that started it (a rotation recreates
+	// it), so its state is kept here for whichever activity is in front
+	private static class InstallJob
+	{
+		public int					InstanceID		= 0;
+		public int					CalculatorType	= 0;
+		public volatile int			Percent			= 0;
+		public volatile int			Error			= 0;
+		public volatile boolean		Finished		= false;
+	}
+
+	private static InstallJob					sInstallJob					= null;
+	private static volatile RomManagerActivity	sActive						= null;
 	// ////////////////////////////////////////////////////////////////////////
 
 	private ControlBar					mControlBar					= null;
@@ -82,6 +105,7 @@ public class RomManagerActivity extends Graph89ActivityBase
 
 	private CalculatorInstanceHelper	mCalculatorInstances		= null;
 	private AlertDialog					mAddEditdialog				= null;
+	private ProgressDialog				mInstallDialog				= null;
 	private RomManagerActivity			mThis						= null;
 
 	@Override
@@ -125,7 +149,9 @@ public class RomManagerActivity extends Graph89ActivityBase
 	protected void onResume()
 	{
 		super.onResume();
+		sActive = this;
 		RefreshUI();
+		ShowInstallState();
 
 		if (mBrowseText != null)
 		{
@@ -136,7 +162,9 @@ public class RomManagerActivity extends Graph89ActivityBase
 	@Override
 	protected void onPause()
 	{
+		sActive = null;
 		DismissAddEditDialog();
+		DismissInstallDialog();
 		super.onPause();
 	}
 
@@ -288,44 +316,17 @@ public class RomManagerActivity extends Graph89ActivityBase
 								boolean isRom = mBrowseText.toLowerCase(Locale.US).endsWith(".rom");
 								boolean isTilemUpdate = mBrowseText.toLowerCase(Locale.US).endsWith(".8xu");
 								
-								int error = 0;
-								String rom_mismatch = null;
 								if (isTilemUpdate && calculatorType != CalculatorTypes.TI83PLUS && calculatorType != CalculatorTypes.TI83PLUS_SE && calculatorType != CalculatorTypes.TI84PLUS && calculatorType != CalculatorTypes.TI84PLUS_SE)
 								{
-									rom_mismatch = "You can only use a 8Xu with a TI84+, TI84+SE, TI83+, TI83+SE";
-								}
-								else
-								{
-									// attempt to copy the temporary file
-									error = EmulatorActivity.nativeInstallROM(mBrowseText, newInstance.ImageFilePath, calculatorType, Util.Bool2Int(isRom));
-									// delete the temporary file
-									Util.deleteFile(mBrowseText);
-								}
-
-								if (error != 0 || rom_mismatch!=null)
-								{
-									String msg = null;
-									if (rom_mismatch != null)
-									{
-										msg = rom_mismatch;
-									}
-									else
-									{
-										msg = "Loading ROM failed. ErrorCode: " + TiEmuErrorCodes.GetErrorCode(error);
-									}
-
-									Util.ShowAlert(mThis, "Error", msg);
+									Util.ShowAlert(mThis, "Error", "You can only use a 8Xu with a TI84+, TI84+SE, TI83+, TI83+SE");
 
 									mCalculatorInstances.Remove(newInstance);
 
 									DismissAddEditDialog();
 									return;
 								}
-								else
-								{
-									newInstance.CalculatorType = calculatorType;
-									mCalculatorInstances.Save();
-								}
+
+								InstallRom(newInstance, mBrowseText, calculatorType, isRom);
 							}
 							else
 							{
@@ -375,6 +376,119 @@ public class RomManagerActivity extends Graph89ActivityBase
 		addEditdialog.show();
 	}
 
+	// The temporary copy of the ROM is deleted once the image is written
+	private void InstallRom(final CalculatorInstance instance, final String source, final int calculatorType, final boolean isRom)
+	{
+		final InstallJob job = new InstallJob();
+		job.InstanceID = instance.ID;
+		job.CalculatorType = calculatorType;
+		sInstallJob = job;
+
+		ShowInstallState();
+
+		final InstallProgress progress = new InstallProgress();
+		final String destination = instance.ImageFilePath;
+
+		sInstaller.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				job.Error = EmulatorActivity.nativeInstallROM(source, destination, calculatorType, Util.Bool2Int(isRom), progress);
+				Util.deleteFile(source);
+				job.Finished = true;
+
+				RomManagerActivity activity = sActive;
+				if (activity != null) activity.mHandler.sendEmptyMessage(HANDLER_INSTALLFINISHED);
+			}
+		});
+	}
+
+	public static void HandlerInstallProgress(int percent)
+	{
+		InstallJob job = sInstallJob;
+		if (job != null) job.Percent = percent;
+
+		RomManagerActivity activity = sActive;
+		if (activity != null) activity.mHandler.obtainMessage(HANDLER_INSTALLPROGRESS, percent, 0).sendToTarget();
+	}
+
+	// Brings a (possibly recreated) activity up to date with the running install
+	private void ShowInstallState()
+	{
+		InstallJob job = sInstallJob;
+
+		if (job == null) return;
+
+		if (job.Finished)
+		{
+			InstallFinished();
+			return;
+		}
+
+		if (mInstallDialog == null)
+		{
+			mInstallDialog = new ProgressDialog(this);
+			mInstallDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+			mInstallDialog.setMessage("Installing ROM ...");
+			mInstallDialog.setMax(100);
+			mInstallDialog.setCancelable(false);
+			mInstallDialog.show();
+		}
+
+		UpdateInstallProgress(job.Percent);
+	}
+
+	// The second half of the progress is the image being read back and checked
+	private void UpdateInstallProgress(int percent)
+	{
+		if (mInstallDialog == null) return;
+
+		if (percent >= 50) mInstallDialog.setMessage("Verifying ROM ...");
+		mInstallDialog.setProgress(percent);
+	}
+
+	private void DismissInstallDialog()
+	{
+		if (mInstallDialog != null)
+		{
+			mInstallDialog.dismiss();
+			mInstallDialog = null;
+		}
+	}
+
+	// Only the activity in front takes the result, a paused one leaves it to the next
+	private void InstallFinished()
+	{
+		InstallJob job = sInstallJob;
+
+		if (job == null || !job.Finished || sActive != this || isFinishing()) return;
+
+		sInstallJob = null;
+		DismissInstallDialog();
+
+		// the list may have been read again since the install started
+		mCalculatorInstances = new CalculatorInstanceHelper(this);
+		CalculatorInstance instance = mCalculatorInstances.GetByID(job.InstanceID);
+
+		if (job.Error != 0)
+		{
+			Util.ShowAlert(mThis, "Error", "Loading ROM failed. ErrorCode: " + TiEmuErrorCodes.GetErrorCode(job.Error));
+
+			if (instance != null)
+			{
+				Util.DeleteFile(instance.ImageFilePath);
+				mCalculatorInstances.Remove(instance);
+			}
+		}
+		else if (instance != null)
+		{
+			instance.CalculatorType = job.CalculatorType;
+			mCalculatorInstances.Save();
+		}
+
+		RefreshUI();
+	}
+
 	private void DismissAddEditDialog()
 	{
 		if (mAddEditdialog != null)
@@ -408,6 +522,10 @@ public class RomManagerActivity extends Graph89ActivityBase
 				CalculatorInstance instance = mCalculatorInstances.GetByIndex(index);
 				Util.DeleteFile(instance.ImageFilePath);
 				Util.DeleteFile(instance.StateFilePath);
+				Util.DeleteFile(instance.StateFilePath + EmulatorThread.CHECKSUM_EXTENSION);
+				Util.DeleteFile(instance.StateFilePath + EmulatorThread.INPUT_LOG_EXTENSION);
+				Util.DeleteFile(instance.StateFilePath + EmulatorThread.INPUT_LOG_STATE_EXTENSION);
+				Util.DeleteFile(instance.StateFilePath + EmulatorThread.INPUT_LOG_STATE_EXTENSION + EmulatorThread.CHECKSUM_EXTENSION);
 				mCalculatorInstances.Remove(instance);
 
 				HandlerRefreshUI();
@@ -510,6 +628,12 @@ public class RomManagerActivity extends Graph89ActivityBase
 			case HANDLER_REFRESHUI:
 				RefreshUI();
 				break;
+			case HANDLER_INSTALLPROGRESS:
+				UpdateInstallProgress(msg.arg1);
+				break;
+			case HANDLER_INSTALLFINISHED:
+				InstallFinished();
+				break;
 		}
 	}
 }
@@ -0,0 +1,196 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import java.io.OutputStream;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.SparseIntArray;
+
+import com.graph89.common.GifWriter;
+
+/**
+ * Records the LCD into an animated GIF. The screen thread captures every
+ * changed frame at 1x from the native buffer, so the live zoom is never
+ * touched, and stores it as palette indices in a ring bounded by
+ * MAX_BYTES (the oldest frames are dropped). Encoding happens on a
+ * background thread after the recording is stopped.
+ */
+public class ScreenRecorder
+{
+	public static volatile ScreenRecorder	Current		= null;
+
+	private static final long				MAX_BYTES	= 32 * 1024 * 1024;
+	private static final int				MAX_COLORS	= 256;
+	private static final int				GIF_SCALE	= 2;
+
+	private int								mWidth		= 0;
+	private int								mHeight		= 0;
+	private int[]							mScratch	= null;
+
+	private byte[][]						mFrames		= null;
+	private long[]							mTimes		= null;
+	private int								mFirst		= 0;
+	private int								mCount		= 0;
+	private long							mStopTime	= 0;
+
+	private int[]							mPalette	= new int[MAX_COLORS];
+	private int								mColors		= 0;
+	private SparseIntArray					mColorIndex	= new SparseIntArray();
+
+	public ScreenRecorder(int width, int height)
+	{
+		mWidth = width;
+		mHeight = height;
+		mScratch = new int[width * height];
+
+		int capacity = (int) Math.max(2, MAX_BYTES / (width * height));
+		mFrames = new byte[capacity][];
+		mTimes = new long[capacity];
+	}
+
+	// Screen thread, with the screen read that produced the current 1x frame
+	public synchronized void Capture(boolean changed)
+	{
+		if (mStopTime != 0 || (!changed && mCount > 0)) return;
+
+		EmulatorActivity.nativeGetEmulatedScreenX1(mScratch);
+
+		int slot = (mFirst + mCount) % mFrames.length;
+
+		if (mCount == mFrames.length)
+		{
+			mFirst = (mFirst + 1) % mFrames.length;
+		}
+		else
+		{
+			++mCount;
+		}
+
+		if (mFrames[slot] == null) mFrames[slot] = new byte[mScratch.length];
+
+		byte[] frame = mFrames[slot];
+		int lastColor = 0;
+		int lastIndex = -1;
+
+		for (int i = 0; i < mScratch.length; ++i)
+		{
+			int color = mScratch[i];
+
+			if (color != lastColor || lastIndex < 0)
+			{
+				lastColor = color;
+				lastIndex = IndexOf(color);
+			}
+
+			frame[i] = (byte) lastIndex;
+		}
+
+		mTimes[slot] = SystemClock.uptimeMillis();
+	}
+
+	// Stops capturing and writes the GIF on a background thread
+	public void Save(final EmulatorActivity activity, final String fileName)
+	{
+		synchronized (this)
+		{
+			mStopTime = SystemClock.uptimeMillis();
+		}
+
+		if (Current == this) Current = null;
+
+		Thread encoder = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				String message;
+
+				try
+				{
+					Encode(activity.getContentResolver(), fileName);
+					message = "Saved " + mCount + " frames to " + fileName;
+				}
+				catch (Exception e)
+				{
+					message = "Error saving the recording: " + e.getMessage();
+				}
+
+				EmulatorActivity.AlertControlObj.SetTitleMessage("Screen Recording", message);
+				activity.HandlerShowAlert();
+			}
+		}, "Graph89 Recorder");
+
+		encoder.setPriority(Thread.MIN_PRIORITY);
+		encoder.start();
+	}
+
+	private void Encode(ContentResolver resolver, String fileName) throws Exception
+	{
+		if (mCount == 0) throw new Exception("nothing was recorded");
+
+		ContentValues details = new ContentValues();
+		details.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
+		details.put(MediaStore.Images.Media.MIME_TYPE, "image/gif");
+		Uri uri = resolver.insert(MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY), details);
+
+		OutputStream out = resolver.openOutputStream(uri);
+
+		try
+		{
+			GifWriter gif = new GifWriter(out, mWidth, mHeight, GIF_SCALE, mPalette, Math.max(2, mColors));
+
+			for (int i = 0; i < mCount; ++i)
+			{
+				int slot = (mFirst + i) % mFrames.length;
+				long end = i + 1 < mCount ? mTimes[(slot + 1) % mFrames.length] : mStopTime;
+
+				gif.AddFrame(mFrames[slot], (int) ((end - mTimes[slot]) / 10));
+			}
+
+			gif.Finish();
+		}
+		finally
+		{
+			out.close();
+		}
+
+		mFrames = null;
+	}
+
+	// Beyond MAX_COLORS, new colors share the last entry. The LCD never gets close.
+	private int IndexOf(int color)
+	{
+		int index = mColorIndex.get(color, -1);
+
+		if (index >= 0) return index;
+
+		if (mColors == MAX_COLORS) return MAX_COLORS - 1;
+
+		index = mColors++;
+		mPalette[index] = color;
+		mColorIndex.put(color, index);
+
+		return index;
+	}
+}
@@ -45,15 +45,14 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 	public static volatile int	EngineLoopSleep		= 30;
 	public static volatile int	ScreenLoopSleep		= 50;
 
-	public static String		ReceivedFilePath	= null;
 	public static String		ReceivedFileName	= null;
+	public static int			ReceivedFileSize	= 0;
 
-	public volatile boolean		IsSleeping			= false;
 	private boolean				firstCycleComplete	= false;
 
-	public TIEmuThread(EmulatorActivity activity, CalculatorInstance calculatorInstance)
+	public TIEmuThread(EmulatorActivity activity, CalculatorInstance calculatorInstance, boolean resumed)
 	{
-		super(activity, calculatorInstance);
+		super(activity, calculatorInstance, resumed);
 
 		synchronized (EmulatorThread.EmulatorLock)
 		{
@@ -83,7 +82,14 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 						prevScreenOff = isScreenOff;
 					}
 
-					Thread.sleep(TIEmuThread.ScreenLoopSleep);
+					if (skin.Screen.VsyncDriven && !FastForward && !IsSleeping)
+					{
+						skin.Screen.WaitForVsync(TIEmuThread.ScreenLoopSleep);
+					}
+					else
+					{
+						Thread.sleep(FastForward ? FAST_FORWARD_SCREEN_SLEEP : TIEmuThread.ScreenLoopSleep);
+					}
 				}
 				catch (InterruptedException e)
 				{
@@ -100,34 +106,37 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 		{
 			try
 			{
-				EmulatorActivity.nativeTiEmuStep1LoadDefaultConfig();
-				int err = 0;
-				err = EmulatorActivity.nativeTiEmuStep2LoadImage(this.CalculatorInstance.ImageFilePath);
-				if (err != 0)
-				{
-					EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error loading the IMG file. Error code: " + TiEmuErrorCodes.GetErrorCode(err));
-					Activity.HandlerShowAlert();
-					return;
-				}
-				err = EmulatorActivity.nativeTiEmuStep3Init();
-				if (err != 0)
+				if (!Resumed)
 				{
-					EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error during init. Error code: " + TiEmuErrorCodes.GetErrorCode(err));
-					Activity.HandlerShowAlert();
-					return;
-				}
+					EmulatorActivity.nativeTiEmuStep1LoadDefaultConfig();
+					int err = 0;
+					err = EmulatorActivity.nativeTiEmuStep2LoadImage(this.CalculatorInstance.ImageFilePath);
+					if (err != 0)
+					{
+						EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error loading the IMG file. Error code: " + TiEmuErrorCodes.GetErrorCode(err));
+						Activity.HandlerShowAlert();
+						return;
+					}
+					err = EmulatorActivity.nativeTiEmuStep3Init();
+					if (err != 0)
+					{
+						EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error during init. Error code: " + TiEmuErrorCodes.GetErrorCode(err));
+						Activity.HandlerShowAlert();
+						return;
+					}
 
-				EmulatorActivity.nativeTiEmuStep4Reset();
+					EmulatorActivity.nativeTiEmuStep4Reset();
 
-				err = LoadState();
-				if (err != 0)
-				{
-					EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error reading the State file. Make sure your internal storage is accessible.");
-					Activity.HandlerShowAlert();
-					return;
-				}
+					err = LoadState();
+					if (err != 0)
+					{
+						EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error reading the State file. Make sure your internal storage is accessible.");
+						Activity.HandlerShowAlert();
+						return;
+					}
 
-				PatchSerialNumber();
+					PatchSerialNumber();
+				}
 
 				EmulatorActivity.nativeTiEmuTurnScreenOn();
 
@@ -146,6 +155,8 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 
 				int sleepInterval = (int) ((float) TIEmuThread.EngineLoopSleep / speedCoefficient);
 
+				CpuGovernor governor = EmulatorActivity.ActiveInstance.Configuration.AdaptiveSpeed ? new CpuGovernor(Activity) : null;
+
 				int autoOff = 0;
 				if (ConfigurationHelper.getBoolean(Activity, ConfigurationHelper.CONF_KEY_KEEP_SCREEN_ON,
 						ConfigurationHelper.CONF_DEFAULT_KEEP_SCREEN_ON)) {
@@ -167,6 +178,8 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 						break;
 					}
 
+					ProcessInputLog();
+
 					if (LoadState)
 					{
 						LoadState();
@@ -187,35 +200,41 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 
 					SkinBase skin = EmulatorActivity.CurrentSkin;
 
-					if (EmulatorActivity.UploadFilesPath != null)
+					if (EmulatorActivity.UploadFilesPath != null && InputLogMode == INPUT_LOG_OFF)
 					{
-						EmulatorActivity.ProgressDialogObj.Message = "";
-						Activity.HandlerShowProgressDialog();
-						for (int i = 0; i < EmulatorActivity.UploadFilesPath.size(); ++i)
-						{
-							String file = EmulatorActivity.UploadFilesPath.get(i);
+						UploadProgress progress = new UploadProgress(Activity, EmulatorActivity.UploadFilesPath);
+						progress.ShowDialog();
+						EmulatorActivity.nativeTiEmuUploadFiles(progress.Files(), EmulatorActivity.ActiveInstance.Configuration.FastInstall, progress);
 
-							EmulatorActivity.ProgressDialogObj.Message = "Sending - " + file;
-							Activity.HandlerUpdateProgressDialog();
-							int ret = EmulatorActivity.nativeTiEmuUploadFile(file);
-							
-							if (ret != 0) break;
+						if (progress.Cancelled)
+						{
+							EmulatorActivity.AlertControlObj.SetTitleMessage("Cancelled", progress.Sent + " of " + EmulatorActivity.UploadFilesPath.size() + " files were sent.");
+							Activity.HandlerShowAlert();
+						}
+						else if (progress.Failed > 0)
+						{
+							EmulatorActivity.AlertControlObj.SetTitleMessage("Error", progress.Failed + " of " + EmulatorActivity.UploadFilesPath.size() + " files could not be sent.\nError code: " + progress.FirstError);
+							Activity.HandlerShowAlert();
 						}
 
 						Util.deleteFile(EmulatorActivity.UploadFilesPath);
 						EmulatorActivity.UploadFilesPath = null;
-						Activity.HandlerHideProgressDialog();
+						progress.HideDialog();
 					}
 
-					if (EmulatorActivity.SyncClock)
+					if (EmulatorActivity.SyncClock && InputLogMode == INPUT_LOG_OFF)
 					{
 						EmulatorActivity.nativeTiEmuSyncClock();
 						EmulatorActivity.SyncClock = false;
 					}
 
-					if (EmulatorActivity.ActiveInstance.Configuration.EnergySave)
+					if (governor != null)
 					{
-						IsSleeping = diff > 30 * 1000 && runCntr % 50 != 0 && !skin.Screen.isBusy();
+						governor.Update(skin.Screen.isBusy(), skin.Screen.FrameChanges, diff);
+					}
+					else if (EmulatorActivity.ActiveInstance.Configuration.EnergySave)
+					{
+						IsSleeping = diff > 30 * 1000 && runCntr % 50 != 0 && !skin.Screen.isBusy() && !FastForward;
 					}
 
 					if (runCntr % 40 == 0 && autoOff > 0 && diff > autoOff * 60 * 1000) {
@@ -228,13 +247,19 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 						firstCycleComplete = true;
 					}
 
-					turbo = EmulatorActivity.ActiveInstance.Configuration.OverclockWhenBusy && skin.Screen.isBusy();
+					turbo = governor != null ? governor.isBoosting() : EmulatorActivity.ActiveInstance.Configuration.OverclockWhenBusy && skin.Screen.isBusy();
+
+					UpdateSpeedMultiplier();
 
-					if (turbo && !IsSleeping)
+					if (FastForward && !IsSleeping)
+					{
+						RunFastForward();
+					}
+					else if (turbo && !IsSleeping)
 					{
 						// run it in a loop.
 						//one iteration takes 4ms
-						for (int i = 0; i < 30 && KillFlag == false && skin.Screen.isBusy(); ++i)
+						for (int i = 0; i < 30 && KillFlag == false && (governor != null || skin.Screen.isBusy()); ++i)
 						{
 							EmulatorActivity.nativeTiEmuRunEngine();
 						}
@@ -253,12 +278,35 @@ public class TIEmuThread extends EmulatorThread implements Runnable
 		}
 	}
 
-	public static void ReceiveFile(String source, String dest)
+	@Override
+	protected void RunEngine()
+	{
+		EmulatorActivity.nativeTiEmuRunEngine();
+	}
+
+	@Override
+	protected int LoadInputLogState(String stateFile)
+	{
+		return EmulatorActivity.nativeTiEmuLoadState(stateFile);
+	}
+
+	@Override
+	protected void WriteInputLogState(String stateFile)
+	{
+		if (Util.IsStorageAvailable())
+		{
+			EmulatorActivity.nativeTiEmuSaveState(stateFile);
+		}
+	}
+
+	// Called by the native side once a variable is received. It stays in
+	// memory until nativeTiEmuSaveReceivedFile writes it where the user chose.
+	public static void ReceiveFile(String name, int size)
 	{
 		if (Activity != null)
 		{
-			ReceivedFilePath = source;
-			ReceivedFileName = dest;
+			ReceivedFileName = name;
+			ReceivedFileSize = size;
 			Activity.HandlerReceiveFile();
 		}
 	}
@@ -38,12 +38,11 @@ public class TilEmThread extends EmulatorThread implements Runnable
 	public static String		ReceivedFilePath	= null;
 	public static String		ReceivedFileName	= null;
 
-	public volatile boolean		IsSleeping			= false;
 	private boolean				firstCycleComplete	= false;
 
-	public TilEmThread(EmulatorActivity activity, CalculatorInstance calculatorInstance)
+	public TilEmThread(EmulatorActivity activity, CalculatorInstance calculatorInstance, boolean resumed)
 	{
-		super(activity, calculatorInstance);
+		super(activity, calculatorInstance, resumed);
 
 		synchronized (EmulatorThread.EmulatorLock)
 		{
@@ -73,7 +72,14 @@ public class TilEmThread extends EmulatorThread implements Runnable
 						prevScreenOff = isScreenOff;
 					}
 
-					Thread.sleep(TilEmThread.ScreenLoopSleep);
+					if (skin.Screen.VsyncDriven && !FastForward && !IsSleeping)
+					{
+						skin.Screen.WaitForVsync(TilEmThread.ScreenLoopSleep);
+					}
+					else
+					{
+						Thread.sleep(FastForward ? FAST_FORWARD_SCREEN_SLEEP : TilEmThread.ScreenLoopSleep);
+					}
 				}
 				catch (InterruptedException e)
 				{
@@ -90,21 +96,24 @@ public class TilEmThread extends EmulatorThread implements Runnable
 		{
 			try
 			{
-				int err = 0;
-				err = EmulatorActivity.nativeTilemLoadImage(this.CalculatorInstance.ImageFilePath);
-				if (err != 0)
+				if (!Resumed)
 				{
-					EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error loading the IMG file. Error code: " + TiEmuErrorCodes.GetErrorCode(err));
-					Activity.HandlerShowAlert();
-					return;
-				}
+					int err = 0;
+					err = EmulatorActivity.nativeTilemLoadImage(this.CalculatorInstance.ImageFilePath);
+					if (err != 0)
+					{
+						EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error loading the IMG file. Error code: " + TiEmuErrorCodes.GetErrorCode(err));
+						Activity.HandlerShowAlert();
+						return;
+					}
 
-				err = LoadState();
-				if (err != 0)
-				{
-					EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error reading the State file. Make sure your internal storage is accessible.");
-					Activity.HandlerShowAlert();
-					return;
+					err = LoadState();
+					if (err != 0)
+					{
+						EmulatorActivity.AlertControlObj.SetTitleMessage("Error", "There was an error reading the State file. Make sure your internal storage is accessible.");
+						Activity.HandlerShowAlert();
+						return;
+					}
 				}
 
 				EmulatorActivity.nativeTilemTurnScreenOn();
@@ -121,6 +130,8 @@ public class TilEmThread extends EmulatorThread implements Runnable
 				int runCntr = 0;
 
 				int sleepInterval = (int) ((float) TilEmThread.EngineLoopSleep / speedCoefficient);
+
+				CpuGovernor governor = EmulatorActivity.ActiveInstance.Configuration.AdaptiveSpeed ? new CpuGovernor(Activity) : null;
 				boolean disableOverclock = false;
 				int turbocount = 0;
 
@@ -145,6 +156,8 @@ public class TilEmThread extends EmulatorThread implements Runnable
 						break;
 					}
 
+					ProcessInputLog();
+
 					if (LoadState)
 					{
 						LoadState();
@@ -165,52 +178,54 @@ public class TilEmThread extends EmulatorThread implements Runnable
 
 					SkinBase skin = EmulatorActivity.CurrentSkin;
 
-					if (EmulatorActivity.UploadFilesPath != null)
+					if (EmulatorActivity.UploadFilesPath != null && InputLogMode == INPUT_LOG_OFF)
 					{
-						EmulatorActivity.ProgressDialogObj.Message = "";
-						Activity.HandlerShowProgressDialog();
-						for (int i = 0; i < EmulatorActivity.UploadFilesPath.size(); ++i)
-						{
-							String file = EmulatorActivity.UploadFilesPath.get(i);
-
-							EmulatorActivity.ProgressDialogObj.Message = "Sending - " + file;
-							Activity.HandlerUpdateProgressDialog();
-							int ret = EmulatorActivity.nativeTilemUploadFile(file);
+						UploadProgress progress = new UploadProgress(Activity, EmulatorActivity.UploadFilesPath);
+						progress.ShowDialog();
+						EmulatorActivity.nativeTilemUploadFiles(progress.Files(), progress);
 
-							if (ret != 0)
+						if (progress.Cancelled)
+						{
+							EmulatorActivity.AlertControlObj.SetTitleMessage("Cancelled", progress.Sent + " of " + EmulatorActivity.UploadFilesPath.size() + " files were sent.");
+							Activity.HandlerShowAlert();
+						}
+						else if (progress.Failed > 0)
+						{
+							boolean is_unsupported = EmulatorActivity.ActiveInstance.CalculatorType == CalculatorTypes.TI83 || EmulatorActivity.ActiveInstance.CalculatorType == CalculatorTypes.TI83PLUS;
+							
+							String msg = "There was an error sending the application.\nIf these errors persist, consider doing a 'Backup' and then a 'Reset'. Both of these actions can be accessed by pressing the 'Back' button of your android device.";
+							
+							if (is_unsupported)
+							{
+								msg += "\nIf you are still unable to upload applications, consider providing a new ROM, or use a PLUS SE version.\nError code: ";
+							}
+							else
 							{
-								boolean is_unsupported = EmulatorActivity.ActiveInstance.CalculatorType == CalculatorTypes.TI83 || EmulatorActivity.ActiveInstance.CalculatorType == CalculatorTypes.TI83PLUS;
-								
-								String msg = "There was an error sending the application.\nIf these errors persist, consider doing a 'Backup' and then a 'Reset'. Both of these actions can be accessed by pressing the 'Back' button of your android device.";
-								
-								if (is_unsupported)
-								{
-									msg += "\nIf you are still unable to upload applications, consider providing a new ROM, or use a PLUS SE version.\nError code: ";
-								}
-								else
-								{
-									msg += "\nError code: ";
-								}
-								
-								EmulatorActivity.AlertControlObj.SetTitleMessage("Error", msg + ret);
-								Activity.HandlerShowAlert();
+								msg += "\nError code: ";
 							}
+							
+							EmulatorActivity.AlertControlObj.SetTitleMessage("Error", msg + progress.FirstError);
+							Activity.HandlerShowAlert();
 						}
 
 						Util.deleteFile(EmulatorActivity.UploadFilesPath);
 						EmulatorActivity.UploadFilesPath = null;
-						Activity.HandlerHideProgressDialog();
+						progress.HideDialog();
 					}
 
-					if (EmulatorActivity.SyncClock)
+					if (EmulatorActivity.SyncClock && InputLogMode == INPUT_LOG_OFF)
 					{
 						EmulatorActivity.nativeTilemSyncClock();
 						EmulatorActivity.SyncClock = false;
 					}
 
-					if (EmulatorActivity.ActiveInstance.Configuration.EnergySave)
+					if (governor != null)
 					{
-						IsSleeping = diff > 30 * 1000 && runCntr % 50 != 0 && !skin.Screen.isBusy();
+						governor.Update(skin.Screen.isBusy(), skin.Screen.FrameChanges, diff);
+					}
+					else if (EmulatorActivity.ActiveInstance.Configuration.EnergySave)
+					{
+						IsSleeping = diff > 30 * 1000 && runCntr % 50 != 0 && !skin.Screen.isBusy() && !FastForward;
 					}
 
 					if (runCntr % 40 == 0 && autoOff > 0 && diff > autoOff * 60 * 1000) {
@@ -223,7 +238,7 @@ public class TilEmThread extends EmulatorThread implements Runnable
 						firstCycleComplete = true;
 					}
 
-					turbo = EmulatorActivity.ActiveInstance.Configuration.OverclockWhenBusy && skin.Screen.isBusy();
+					turbo = governor != null ? governor.isBoosting() : EmulatorActivity.ActiveInstance.Configuration.OverclockWhenBusy && skin.Screen.isBusy();
 					
 					if (turbo)
 					{
@@ -240,12 +255,18 @@ public class TilEmThread extends EmulatorThread implements Runnable
 					}
 					
 					//if (maxx<turbocount)maxx = turbocount;
-					
-					if (!disableOverclock && turbo && !IsSleeping)
+
+					UpdateSpeedMultiplier();
+
+					if (FastForward && !IsSleeping)
+					{
+						RunFastForward();
+					}
+					else if (!disableOverclock && turbo && !IsSleeping)
 					{
 						// run it in a loop.
 						//one iteration takes 4ms
-						for (int i = 0; i < 30 && KillFlag == false && skin.Screen.isBusy(); ++i)
+						for (int i = 0; i < 30 && KillFlag == false && (governor != null || skin.Screen.isBusy()); ++i)
 						{
 							EmulatorActivity.nativeTilemRunEngine();
 						}
@@ -264,6 +285,27 @@ public class TilEmThread extends EmulatorThread implements Runnable
 		}
 	}
 
+	@Override
+	protected void RunEngine()
+	{
+		EmulatorActivity.nativeTilemRunEngine();
+	}
+
+	@Override
+	protected int LoadInputLogState(String stateFile)
+	{
+		return EmulatorActivity.nativeTilemLoadState(stateFile);
+	}
+
+	@Override
+	protected void WriteInputLogState(String stateFile)
+	{
+		if (Util.IsStorageAvailable())
+		{
+			EmulatorActivity.nativeTilemSaveState(CalculatorInstance.ImageFilePath, stateFile);
+		}
+	}
+
 	public static void ReceiveFile(String source, String dest)
 	{
 		if (Activity != null)
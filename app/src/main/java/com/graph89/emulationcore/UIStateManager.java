@@ -38,6 +38,8 @@ public class UIStateManager
 	public EmulatorView			EmulatorViewIntstance		= null;
 	public ActionsList			ActionsListIntstance		= null;
 	public ButtonHighlightView	ButtonHighlightViewInstance	= null;
+	public LcdView				LcdViewInstance				= null;
+	public LcdSurfaceView		LcdSurfaceViewInstance		= null;
 
 	private int					mCurrentUIState				= UIStateManager.UI_STATE_UNINITIALIZED;
 	private Context				mContext					= null;
@@ -52,6 +54,8 @@ public class UIStateManager
 		ActionsListIntstance = (ActionsList) activity.findViewById(R.id.actionslist);
 		EmulatorViewIntstance = (EmulatorView) activity.findViewById(R.id.emulator_main_emulatorview);
 		ButtonHighlightViewInstance = (ButtonHighlightView) activity.findViewById(R.id.emulator_main_buttonhighlightview);
+		LcdViewInstance = (LcdView) activity.findViewById(R.id.emulator_main_lcdview);
+		LcdSurfaceViewInstance = (LcdSurfaceView) activity.findViewById(R.id.emulator_main_lcdsurfaceview);
 
 		ControlBarIntstance.CalculatorTypeSpinnerInstance.setOnItemSelectedListener(new OnItemSelectedListenerWrapper(new OnItemSelectedListener() {
 			@Override
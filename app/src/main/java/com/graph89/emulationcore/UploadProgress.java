@@ -0,0 +1,104 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import java.util.List;
+
+/**
+ * Receives the per file progress of nativeTiEmuUploadFiles and
+ * nativeTilemUploadFiles, which send a whole list of files in one link
+ * session. Called on the emulator thread by the native code, the dialog
+ * messages are posted to the UI thread through a queue. The transfer can
+ * be cancelled from the UI thread.
+ */
+public class UploadProgress
+{
+	private EmulatorActivity	mActivity	= null;
+	private List<String>		mFiles		= null;
+
+	public int					Sent		= 0;
+	public int					Failed		= 0;
+	public int					FirstError	= 0;
+	public volatile boolean		Cancelled	= false;
+
+	public UploadProgress(EmulatorActivity activity, List<String> files)
+	{
+		mActivity = activity;
+		mFiles = files;
+	}
+
+	public String[] Files()
+	{
+		return mFiles.toArray(new String[mFiles.size()]);
+	}
+
+	// Shows the progress dialog with a Cancel button, before the upload
+	public void ShowDialog()
+	{
+		EmulatorActivity.ProgressDialogObj.Message = "";
+		EmulatorActivity.ProgressDialogObj.OnCancel = new Runnable() {
+			@Override
+			public void run()
+			{
+				Cancelled = true;
+				EmulatorActivity.nativeCancelTransfer();
+				Post("Cancelling ...");
+			}
+		};
+
+		mActivity.HandlerShowProgressDialog();
+	}
+
+	public void HideDialog()
+	{
+		EmulatorActivity.ProgressDialogObj.OnCancel = null;
+		mActivity.HandlerHideProgressDialog();
+	}
+
+	public void OnSending(int index)
+	{
+		String message = "Sending - " + mFiles.get(index);
+
+		if (mFiles.size() > 1)
+		{
+			message += " (" + (index + 1) + "/" + mFiles.size() + ")";
+		}
+
+		Post(message);
+	}
+
+	public void OnSent(int index, int error)
+	{
+		if (error == 0)
+		{
+			++Sent;
+			return;
+		}
+
+		if (Failed == 0) FirstError = error;
+		++Failed;
+	}
+
+	private void Post(String message)
+	{
+		EmulatorActivity.ProgressDialogObj.Posted.add(message);
+		mActivity.HandlerUpdateProgressDialog();
+	}
+}
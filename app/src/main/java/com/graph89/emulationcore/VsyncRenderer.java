@@ -0,0 +1,152 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.graph89.emulationcore;
+
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * Draws the LCD into a surface on every display frame. The Choreographer
+ * callback runs on its own looper thread: it wakes the screen thread, which
+ * stays the only one reading the emulator, and draws the last frame the
+ * screen thread completed if there is a new one.
+ */
+public class VsyncRenderer implements Choreographer.FrameCallback
+{
+	private SurfaceHolder		mHolder		= null;
+	private EmulatorScreen		mScreen		= null;
+
+	private HandlerThread		mThread		= null;
+	private volatile boolean	mRunning	= false;
+	private volatile boolean	mRedraw		= true;
+
+	public VsyncRenderer(SurfaceHolder holder, EmulatorScreen screen)
+	{
+		mHolder = holder;
+		mScreen = screen;
+	}
+
+	public void Start()
+	{
+		if (mRunning) return;
+
+		mRunning = true;
+		mRedraw = true;
+		mScreen.VsyncDriven = true;
+
+		mThread = new HandlerThread("Graph89 Vsync");
+		mThread.start();
+
+		new Handler(mThread.getLooper()).post(new Runnable() {
+			@Override
+			public void run()
+			{
+				Choreographer.getInstance().postFrameCallback(VsyncRenderer.this);
+			}
+		});
+	}
+
+	// Returns once the surface is no longer drawn to
+	public void Stop()
+	{
+		if (!mRunning) return;
+
+		mRunning = false;
+		mScreen.VsyncDriven = false;
+
+		mThread.quit();
+
+		try
+		{
+			mThread.join();
+		}
+		catch (InterruptedException e)
+		{
+		}
+
+		mThread = null;
+	}
+
+	// Draw on the next frame even if the LCD hasn't changed
+	public void Redraw()
+	{
+		mRedraw = true;
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos)
+	{
+		if (!mRunning) return;
+
+		mScreen.SignalVsync();
+
+		if (mScreen.HasNewFrame() || mRedraw)
+		{
+			mRedraw = false;
+			Draw();
+		}
+
+		Choreographer.getInstance().postFrameCallback(this);
+	}
+
+	private void Draw()
+	{
+		Surface surface = mHolder.getSurface();
+
+		if (surface == null || !surface.isValid()) return;
+
+		Canvas canvas = null;
+
+		try
+		{
+			canvas = Build.VERSION.SDK_INT >= 23 ? surface.lockHardwareCanvas() : mHolder.lockCanvas();
+
+			if (canvas == null) return;
+
+			canvas.translate(-mScreen.DestinationRectangle.left, -mScreen.DestinationRectangle.top);
+			mScreen.drawScreen(canvas);
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		finally
+		{
+			if (canvas != null)
+			{
+				if (Build.VERSION.SDK_INT >= 23)
+				{
+					surface.unlockCanvasAndPost(canvas);
+				}
+				else
+				{
+					mHolder.unlockCanvasAndPost(canvas);
+				}
+			}
+		}
+	}
+}
@@ -42,6 +42,7 @@ src/core/ti_hw/rtc_hw3.c \
 src/core/ti_hw/tichars.c \
 src/core/ti_sw/er_codes.c \
 src/core/ti_sw/handles.c \
+src/core/ti_sw/inject.c \
 src/core/ti_sw/iodefs.c \
 src/core/ti_sw/mem_map.c \
 src/core/ti_sw/registers.c \
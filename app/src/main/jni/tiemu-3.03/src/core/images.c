@@ -443,6 +443,63 @@ int ti68k_get_img_infos(const char *filename, IMG_INFO *ri)
     return 0;
 }
 
+/*
+	Everything the conversions write goes through here in blocks of 64 KB, so
+	that the caller can follow the progress and hash the image on the fly.
+*/
+static void (*image_written)(void *context, const void *data, int length, int total) = NULL;
+static void *image_written_context = NULL;
+static int image_total = 0;
+
+void ti68k_set_image_listener(void (*written)(void *context, const void *data, int length, int total), void *context)
+{
+	image_written = written;
+	image_written_context = context;
+}
+
+static size_t image_fwrite(const void *data, size_t length, FILE *f)
+{
+	const uint8_t *p = (const uint8_t *)data;
+	size_t done = 0;
+
+	while(done < length)
+	{
+		size_t block = length - done < 65536 ? length - done : 65536;
+
+		if(fwrite(p + done, 1, block, f) < block)
+			return done;
+		if(image_written != NULL)
+			image_written(image_written_context, p + done, (int)block, image_total);
+
+		done += block;
+	}
+
+	return done;
+}
+
+static int image_fputc(int c, FILE *f)
+{
+	uint8_t b = (uint8_t)c;
+	return image_fwrite(&b, 1, f) == 1 ? b : EOF;
+}
+
+static int image_fill(int length, FILE *f)
+{
+	static uint8_t ff[65536];
+	int block;
+
+	memset(ff, 0xff, sizeof(ff));
+
+	for(; length > 0; length -= block)
+	{
+		block = length < (int)sizeof(ff) ? length : (int)sizeof(ff);
+		if(image_fwrite(ff, block, f) < (size_t)block)
+			return -1;
+	}
+
+	return 0;
+}
+
 /*
   	Convert a romdump into an image.
 	This kind of image is complete (boot & certificate).
@@ -489,10 +546,11 @@ int ti68k_convert_rom_to_image(const char *srcname, const char *dest,  int* calc
 	strcpy(img.signature, IMG_SIGN);
 	img.header_size = sizeof(IMG_INFO);
     img.revision = IMG_REV;
+	image_total = sizeof(IMG_INFO) + img.size;
 
 	// Write file
-	if (fwrite(&img, 1, sizeof(IMG_INFO), f) < (size_t)sizeof(IMG_INFO)
-	    || fwrite(img.data, sizeof(char), img.size, f) < (size_t)img.size)
+	if (image_fwrite(&img, sizeof(IMG_INFO), f) < (size_t)sizeof(IMG_INFO)
+	    || image_fwrite(img.data, img.size, f) < (size_t)img.size)
 	{
 	  LOGW("Failed to write to file: <%s>\n", dest);
 	  fclose(f);
@@ -520,7 +578,7 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 	FILE *f; 
   	int err;
 	IMG_INFO img;
-	int i, j;
+	int i;
 	int num_blocks, last_block;
     	int real_size;
 	HW_PARM_BLOCK hwpb;
@@ -554,6 +612,7 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 	img.revision = IMG_REV;
     real_size = img.size - SPP;
     img.size = ti68k_get_rom_size(img.calc_type);
+	image_total = sizeof(IMG_INFO) + img.size;
 
     img.hw_type = hw_type;
 	if(hw_type == -1)
@@ -565,7 +624,7 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 	}
 	
 	// Write header
-	if (fwrite(&img, 1, sizeof(IMG_INFO), f) < sizeof(IMG_INFO))
+	if (image_fwrite(&img, sizeof(IMG_INFO), f) < sizeof(IMG_INFO))
 	{
 	  LOGW("Failed to write to file: <%s>\n", dest);
 	  fclose(f);
@@ -574,7 +633,7 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 
 	// Write boot block
 	memcpy(img.data, &img.data[SPP + BO], 256);
-	if (fwrite(img.data, 1, 256, f) < 256)
+	if (image_fwrite(img.data, 256, f) < 256)
 	{
 	  LOGW("Failed to write to file: <%s>\n", dest);
 	  fclose(f);
@@ -609,42 +668,42 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 	ti68k_put_hw_param_block((uint8_t *)img.data, img.rom_base, &hwpb);
 
 	// write filler
-	if (fputc(0xfe, f) < 0 || fputc(0xed, f) < 0 || fputc(0xba, f) < 0 || fputc(0xbe, f) < 0
+	if (image_fputc(0xfe, f) < 0 || image_fputc(0xed, f) < 0 || image_fputc(0xba, f) < 0 || image_fputc(0xbe, f) < 0
 	//fwrite(&hwpb, 1hwpb.len+2, f);
 
 	// write address (pointer)
-	|| fputc(0x00, f) < 0
-	|| fputc(img.rom_base, f) < 0
-	|| fputc(0x01, f) < 0
-	|| fputc(0x08, f) < 0
+	|| image_fputc(0x00, f) < 0
+	|| image_fputc(img.rom_base, f) < 0
+	|| image_fputc(0x01, f) < 0
+	|| image_fputc(0x08, f) < 0
 
 	// write structure
-	|| fputc(MSB(hwpb.len), f) < 0
-	|| fputc(LSB(hwpb.len), f) < 0
-	|| fputc(MSB(MSW(hwpb.hardwareID)), f) < 0
-	|| fputc(LSB(MSW(hwpb.hardwareID)), f) < 0
-	|| fputc(MSB(LSW(hwpb.hardwareID)), f) < 0
-	|| fputc(LSB(LSW(hwpb.hardwareID)), f) < 0
-	|| fputc(MSB(MSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(LSB(MSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(MSB(LSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(LSB(LSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(MSB(MSW(hwpb.bootMajor)), f) < 0
-	|| fputc(LSB(MSW(hwpb.bootMajor)), f) < 0
-	|| fputc(MSB(LSW(hwpb.bootMajor)), f) < 0
-	|| fputc(LSB(LSW(hwpb.bootMajor)), f) < 0
-	|| fputc(MSB(MSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(LSB(MSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(MSB(LSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(LSB(LSW(hwpb.hardwareRevision)), f) < 0
-	|| fputc(MSB(MSW(hwpb.bootBuild)), f) < 0
-	|| fputc(LSB(MSW(hwpb.bootBuild)), f) < 0
-	|| fputc(MSB(LSW(hwpb.bootBuild)), f) < 0
-	|| fputc(LSB(LSW(hwpb.bootBuild)), f) < 0
-	|| fputc(MSB(MSW(hwpb.gateArray)), f) < 0
-	|| fputc(LSB(MSW(hwpb.gateArray)), f) < 0
-	|| fputc(MSB(LSW(hwpb.gateArray)), f) < 0
-	|| fputc(LSB(LSW(hwpb.gateArray)), f) < 0)
+	|| image_fputc(MSB(hwpb.len), f) < 0
+	|| image_fputc(LSB(hwpb.len), f) < 0
+	|| image_fputc(MSB(MSW(hwpb.hardwareID)), f) < 0
+	|| image_fputc(LSB(MSW(hwpb.hardwareID)), f) < 0
+	|| image_fputc(MSB(LSW(hwpb.hardwareID)), f) < 0
+	|| image_fputc(LSB(LSW(hwpb.hardwareID)), f) < 0
+	|| image_fputc(MSB(MSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(LSB(MSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(MSB(LSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(LSB(LSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(MSB(MSW(hwpb.bootMajor)), f) < 0
+	|| image_fputc(LSB(MSW(hwpb.bootMajor)), f) < 0
+	|| image_fputc(MSB(LSW(hwpb.bootMajor)), f) < 0
+	|| image_fputc(LSB(LSW(hwpb.bootMajor)), f) < 0
+	|| image_fputc(MSB(MSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(LSB(MSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(MSB(LSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(LSB(LSW(hwpb.hardwareRevision)), f) < 0
+	|| image_fputc(MSB(MSW(hwpb.bootBuild)), f) < 0
+	|| image_fputc(LSB(MSW(hwpb.bootBuild)), f) < 0
+	|| image_fputc(MSB(LSW(hwpb.bootBuild)), f) < 0
+	|| image_fputc(LSB(LSW(hwpb.bootBuild)), f) < 0
+	|| image_fputc(MSB(MSW(hwpb.gateArray)), f) < 0
+	|| image_fputc(LSB(MSW(hwpb.gateArray)), f) < 0
+	|| image_fputc(MSB(LSW(hwpb.gateArray)), f) < 0
+	|| image_fputc(LSB(LSW(hwpb.gateArray)), f) < 0)
 	{
 	  LOGW("Failed to write to file: <%s>\n", dest);
 	  fclose(f);
@@ -652,13 +711,12 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 	}
 
 	// Fill with 0xff up-to System Part*
-	for(i = 0x108 + hwpb.len+2; i < SPP; i++)
-		if (fputc(0xff, f) < 0)
-		{
-		  LOGW("Failed to write to file: <%s>\n", dest);
-		  fclose(f);
-		  return ERR_CANT_OPEN;
-		}
+	if (image_fill(SPP - (0x108 + hwpb.len+2), f) < 0)
+	{
+	  LOGW("Failed to write to file: <%s>\n", dest);
+	  fclose(f);
+	  return ERR_CANT_OPEN;
+	}
  
 	// Copy FLASH upgrade at 0x12000 (SPP)
 	num_blocks = real_size / 65536;
@@ -667,7 +725,7 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 		LOGI(".");
 		fflush(stdout);
 
-		if (fwrite(&img.data[65536 * i + SPP], sizeof(char), 65536, f) < 65536)
+		if (image_fwrite(&img.data[65536 * i + SPP], 65536, f) < 65536)
 		{
 		  LOGW("Failed to write to file: <%s>\n", dest);
 		  fclose(f);
@@ -676,7 +734,7 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
 	}
 
 	last_block = real_size % 65536;
-	if (fwrite(&img.data[65536 * i + SPP], sizeof(char), last_block, f) < (size_t)last_block)
+	if (image_fwrite(&img.data[65536 * i + SPP], last_block, f) < (size_t)last_block)
 	{
 	  LOGW("Failed to write to file: <%s>\n", dest);
 	  fclose(f);
@@ -685,13 +743,12 @@ int ti68k_convert_tib_to_image(const char *srcname, const char *dest, int hw_typ
  
 	LOGI("");
 	LOGI("Completing to %iMB size\n", img.size >> 20);
-	for(j = SPP + real_size; j < img.size; j++)
-		if (fputc(0xff, f) < 0)
-		{
-		  LOGW("Failed to write to file: <%s>\n", dest);
-		  fclose(f);
-		  return ERR_CANT_OPEN;
-		}
+	if (image_fill(img.size - (SPP + real_size), f) < 0)
+	{
+	  LOGW("Failed to write to file: <%s>\n", dest);
+	  fclose(f);
+	  return ERR_CANT_OPEN;
+	}
  
 	// Close file
 	if (fclose(f))
@@ -101,6 +101,7 @@ int ti68k_get_rom_infos(const char *filename, IMG_INFO *rom, int preload);
 int ti68k_get_tib_infos(const char *filename, IMG_INFO *tib, int preload);
 int ti68k_get_img_infos(const char *filename, IMG_INFO *img);
 
+void ti68k_set_image_listener(void (*written)(void *context, const void *data, int length, int total), void *context);
 int ti68k_convert_rom_to_image(const char *src, const char *dest, int* calc_type);
 int ti68k_convert_tib_to_image(const char *src, const char *dest, int hw_type, int* calc_type);
 int ti68k_merge_rom_and_tib_to_image(const char *srcname1, const char *srcname2, 
@@ -55,6 +55,7 @@
 #include "romcalls.h"
 #include "iodefs.h"
 #include "mem_map.h"
+#include "inject.h"
 #include <androidlog.h>
 
 /**********************/
@@ -188,6 +189,41 @@ int ti68k_linkport_send_file(const char *filename)
     return send_ti_file(filename);
 }
 
+int ti68k_linkport_inject_file(const char *filename)
+{
+    return vat_inject_file(filename);
+}
+
+int ti68k_linkport_begin_send(void)
+{
+    return send_ti_begin();
+}
+
+int ti68k_linkport_send_next(const char *filename)
+{
+    return send_ti_next(filename);
+}
+
+void ti68k_linkport_end_send(void)
+{
+    send_ti_end();
+}
+
+void ti68k_linkport_abort_send(void)
+{
+    send_ti_abort();
+}
+
+int ti68k_linkport_save_received(const char *filename)
+{
+    return recfile_save(filename);
+}
+
+void ti68k_linkport_drop_received(void)
+{
+    recfile_drop();
+}
+
 int ti68k_linkport_unconfigure(void)
 {
 	return hw_dbus_exit();
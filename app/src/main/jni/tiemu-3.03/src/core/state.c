@@ -49,9 +49,6 @@
 #include "rtc_hw3.h"
 #include <androidlog.h>
 
-#define SAV_REVISION	21	// Current revision
-#define SAV_MINI		20	// Minimum supported revision
-
 int ti68k_state_parse(const char *filename, char **rom_file, char **tib_file)
 {
 	FILE *f;
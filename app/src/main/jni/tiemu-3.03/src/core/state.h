@@ -29,8 +29,11 @@
 // Please update the docs/TiEmu_img_format.txt documentation when making changes
 // on the structure below
 
-// If this structure is modified, the SAV_REVISION number (state.c)
+// If this structure is modified, the SAV_REVISION number
 // has to be incremented.
+#define SAV_REVISION	21	// Current revision
+#define SAV_MINI		20	// Minimum supported revision
+
 typedef struct
 {
 	long	revision;		// structure revision
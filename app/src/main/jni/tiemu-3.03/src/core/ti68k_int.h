@@ -51,6 +51,13 @@ unsigned int ti68k_get_cycle_count(int reset, unsigned int *diff);
 // Link
 int ti68k_linkport_ready(void);
 int ti68k_linkport_send_file(const char *filename);
+int ti68k_linkport_inject_file(const char *filename);
+int ti68k_linkport_begin_send(void);
+int ti68k_linkport_send_next(const char *filename);
+void ti68k_linkport_end_send(void);
+void ti68k_linkport_abort_send(void);
+int ti68k_linkport_save_received(const char *filename);
+void ti68k_linkport_drop_received(void);
 int ti68k_linkport_unconfigure(void);
 int ti68k_linkport_reconfigure(void);
 int ti68k_calc_to_libti_calc(void);
@@ -53,6 +53,7 @@
 #include "ti68k_err.h"
 #include "ti68k_def.h"
 #include "ti68k_int.h"
+#include "hw.h"
 #include <tie_error.h>
 #include <androidlog.h>
 
@@ -217,6 +218,8 @@ static void vd_reinit(void) {
 }
 ;
 static void vd_putbyte(uint8_t arg) {
+	io_bit_set(0x0d, 6);
+	// tx reg empty, the byte goes nowhere
 }
 ;
 static uint8_t vd_getbyte(void) {
@@ -250,6 +253,8 @@ static void lp_putbyte(uint8_t arg) {
 	if (err) {
 		io_bit_set(0x0d, 7);
 		// error
+		io_bit_set(0x0d, 6);
+		// the byte is lost, don't leave the tx reg full
 		printf("lp_putbyte error !\n");
 		return;
 	}
@@ -313,35 +318,126 @@ static int lp_checkread(void) {
 
 static int sip = 0;	// sending in progress
 static int rip = 0;	// receive in progress
+static volatile int send_abort = 0;	// set from another thread to cancel a send
+
+/*
+ Both directions are buffered so that a transfer doesn't have to step the
+ CPU one instruction at a time around every byte. The rx register (f2t_data)
+ is refilled from the fifo as soon as the OS reads it, and bytes written by
+ the OS are queued until the receiver pops them. A full ti => file fifo
+ holds the tx register full (STX=0), like a slow receiver would, until
+ ilp_recv() makes room again.
+ */
 
-int t2f_data;   // ti => file data
-int t2f_flag;   // data available
+#define LINK_FIFO_SIZE	(1 << 16)	// power of 2, holds a whole packet
+#define LINK_SLICE		1024		// instructions run between fifo checks
+
+typedef struct {
+	uint8_t data[LINK_FIFO_SIZE];
+	unsigned int head;	// next byte to pop
+	unsigned int tail;	// next free slot
+} LinkFifo;
+
+static LinkFifo t2f_fifo;	// ti => file
+static LinkFifo f2t_fifo;	// file => ti (behind the rx register)
+
+int t2f_data;   // ti => file data, last byte written
 
 int f2t_data;   // file => ti data
 int f2t_flag;   // data available
 
 int recfile_flag; // receive file at end of instruction
 
+static int fifo_count(const LinkFifo *f) {
+	return f->tail - f->head;
+}
+
+static int fifo_full(const LinkFifo *f) {
+	return fifo_count(f) == LINK_FIFO_SIZE;
+}
+
+static void fifo_push(LinkFifo *f, uint8_t arg) {
+	f->data[f->tail++ & (LINK_FIFO_SIZE - 1)] = arg;
+}
+
+static int fifo_pop(LinkFifo *f, uint8_t *arg) {
+	if (f->head == f->tail)
+		return 0;
+
+	*arg = f->data[f->head++ & (LINK_FIFO_SIZE - 1)];
+	return !0;
+}
+
+// emulated time, so a busy host doesn't time out a transfer
+// anything past the range of hw_clock (the default timeout is huge) never times out
+static uint32_t link_timeout_cycles(int tenths) {
+	uint64_t cycles = (uint64_t)tenths * (engine_num_cycles_per_loop() * 10 / 3);
+
+	return cycles > 0xffffffffU ? 0xffffffffU : (uint32_t)cycles;
+}
+
 void df_reinit(void) {
-	t2f_flag = f2t_flag = 0;
+	if (fifo_full(&t2f_fifo)) {
+		io_bit_set(0x0d, 6);
+		// STX=1, the queue held the tx reg full
+	}
+
+	if (f2t_flag) {
+		io_bit_clr(0x0d, 5);
+		// SRX=0, the pending byte is dropped
+	}
+
+	f2t_flag = 0;
+	t2f_fifo.head = t2f_fifo.tail = 0;
+	f2t_fifo.head = f2t_fifo.tail = 0;
 }
 
 void df_putbyte(uint8_t arg) {
 	t2f_data = arg;
-	t2f_flag = 1;
 
 	if (!sip) {
 		if (params.recv_file)
 			recfile_flag = 1;
-		else
+		else {
 			io_bit_set(0x0d, 7);
-		// SLE=1: error
+			// SLE=1: error, nobody will read it
+			io_bit_set(0x0d, 6);
+			// STX=1, the byte is dropped
+			return;
+		}
+	}
+
+	if (fifo_full(&t2f_fifo)) {
+		io_bit_set(0x0d, 7);
+		// SLE=1: written while the tx reg was full, the byte is lost
+		return;
+	}
+
+	fifo_push(&t2f_fifo, arg);
+
+	if (!fifo_full(&t2f_fifo)) {
+		io_bit_set(0x0d, 6);
+		// STX=1 (tx reg is empty)
+		hw_m68k_irq(4);
 	}
 }
 
 uint8_t df_getbyte(void) {
+	uint8_t arg = f2t_data;
+	uint8_t next;
+
 	f2t_flag = 0;
-	return f2t_data;
+
+	if (fifo_pop(&f2t_fifo, &next)) {
+		f2t_data = next;
+		f2t_flag = 1;
+
+		io_bit_set(0x0d, 5);
+		// SRX=1 (rx reg is full)
+		hw_m68k_irq(4);
+	}
+
+	return arg;
 }
 
 int df_checkread(void) {
@@ -373,27 +469,32 @@ int df_checkread(void) {
 /* libticables functions (link API) */
 
 int ilp_reset(CableHandle *h) {
-	return t2f_flag = f2t_flag = 0;
+	df_reinit();
+	return 0;
 }
 
+// Queues the data and returns, the OS drains it while the engine runs
 int ilp_send(CableHandle *h, uint8_t *data, uint32_t len) {
 	unsigned int i;
-	tiTIME clk;
 
 	for (i = 0; i < len; i++) {
-		f2t_data = data[i];
-		f2t_flag = 1;
+		if (!f2t_flag) {
+			f2t_data = data[i];
+			f2t_flag = 1;
+
+			io_bit_set(0x0d, 5);
+			// SRX=1 (rx reg is full)
+			hw_m68k_irq(4);		// this turbo-boost transfer !
+			continue;
+		}
 
-		io_bit_set(0x0d, 5);
-		// SRX=1 (rx reg is full)
-		hw_m68k_irq(4);		// this turbo-boost transfer !
+		while (fifo_full(&f2t_fifo)) {
+			if (sip && send_abort)
+				return ERROR_ABORT;
+			hw_m68k_run(LINK_SLICE);
+		}
 
-		TO_START(clk);
-		while (f2t_flag) {
-			hw_m68k_run(1);
-			//if(TO_ELAPSED(clk, linkp.cable_timeout))
-			//	return ERROR_WRITE_TIMEOUT;
-		};
+		fifo_push(&f2t_fifo, data[i]);
 	}
 
 	return 0;
@@ -401,22 +502,26 @@ int ilp_send(CableHandle *h, uint8_t *data, uint32_t len) {
 
 int ilp_recv(CableHandle *h, uint8_t *data, uint32_t len) {
 	unsigned int i;
-	tiTIME clk;
+	uint32_t start;
+	uint32_t timeout = link_timeout_cycles(linkp.cable_timeout*2);
 
 	for (i = 0; i < len; i++) {
-		TO_START(clk);
-		while (!t2f_flag) {
-			hw_m68k_run(1);
-			if (TO_ELAPSED(clk, linkp.cable_timeout*2))
+		int was_full = fifo_full(&t2f_fifo);
+
+		start = hw_clock;
+		while (!fifo_pop(&t2f_fifo, &data[i])) {
+			if (sip && send_abort)
+				return ERROR_ABORT;
+			hw_m68k_run(LINK_SLICE);
+			if (hw_clock - start > timeout)
 				return ERROR_WRITE_TIMEOUT;
 		};
 
-		data[i] = t2f_data;
-		t2f_flag = 0;
-
-		io_bit_set(0x0d, 6);
-		// STX=1 (tx reg is empty)
-		hw_m68k_irq(4);		// this turbo-boost transfer (30% faster)
+		if (was_full) {
+			io_bit_set(0x0d, 6);
+			// STX=1 (tx reg is empty)
+			hw_m68k_irq(4);
+		}
 	}
 
 	return 0;
@@ -428,7 +533,7 @@ static int do_cpu(int duration)	// thenth of seconds
 	TO_START(clk);
 	while (1) {
 		hw_m68k_run(1);
-		if (TO_ELAPSED(clk, duration))
+		if (TO_ELAPSED(clk, duration) || send_abort)
 			return !0;;
 	};
 	return 0;
@@ -441,6 +546,7 @@ int sync_clock() {
 	int err;
 
 	sip = 1;
+	send_abort = 0;
 
 	err = ticalcs_calc_isready(calc_handle);
 	if (err) {
@@ -463,29 +569,39 @@ int sync_clock() {
 	end: sip = 0;
 }
 
-int send_ti_file(const char *filename) {
-	gint ok = 0;
-	int ret;
-	struct timeval start, finish;
-	double duration;
+static int is_68k_file(const char *filename) {
+	int model;
 
-	// Check for TI file
 	if (!tifiles_file_is_ti(filename))
-		return ERR_NOT_TI_FILE;
+		return 0;
 
-	if (((tifiles_file_get_model(filename) == CALC_TI92))
-			|| (tifiles_file_get_model(filename) == CALC_TI89)
-			|| (tifiles_file_get_model(filename) == CALC_TI89T)
-			|| (tifiles_file_get_model(filename) == CALC_TI92P)
-			|| (tifiles_file_get_model(filename) == CALC_V200)
-			|| (tifiles_file_is_tigroup(filename))) {
-		ok = 1;
-	} else
-		return ERR_NOT_TI_FILE;
+	model = tifiles_file_get_model(filename);
+	return model == CALC_TI92 || model == CALC_TI89 || model == CALC_TI89T
+			|| model == CALC_TI92P || model == CALC_V200
+			|| tifiles_file_is_tigroup(filename);
+}
+
+// Transfer aborted ? Set hw link error
+static void send_ti_error(int ret) {
+	tiemu_err(ret, "error in send_ti_file");
+	io_bit_set(0x0d, 7);
+	// SLE=1
+	df_reinit();
+}
+
+/*
+	Link session: the calc is checked (and sent HOME) once, then any number
+	of files go through send_ti_next. After a failed file the link has been
+	reset, the session has to be ended and begun again.
+*/
+int send_ti_begin(void) {
+	int ret;
 
-	// Use direct file loading
-	gettimeofday(&start, NULL );
 	sip = 1;
+	send_abort = 0;
+
+	// Bytes left from an earlier session would be taken for the calc's answer
+	df_reinit();
 
 	// Check whether calc is ready... Otherwise, goes to HOME.
 	ret = ticalcs_calc_isready(calc_handle);
@@ -511,10 +627,25 @@ int send_ti_file(const char *filename) {
 
 		if (ret) {
 			sip = 0;
-			goto send_ti_file_exit;
+			send_ti_error(ret);
+			return ret;
 		}
 	}
 
+	return 0;
+}
+
+int send_ti_next(const char *filename) {
+	int ret = 0;
+	struct timeval start, finish;
+	double duration;
+
+	if (!is_68k_file(filename))
+		return ERR_NOT_TI_FILE;
+
+	// Use direct file loading
+	gettimeofday(&start, NULL );
+
 	// FLASH APP file ?
 	if (tifiles_file_is_app(filename)) {
 		// increase timeout due to excessive time for last ACK
@@ -551,19 +682,39 @@ int send_ti_file(const char *filename) {
 		linkp.cable_timeout /= 10;
 	}
 
-	// Restore link cable use
-	sip = 0;
 	gettimeofday(&finish, NULL );
 	duration = (double) (finish.tv_sec - start.tv_sec)
 			+ (double) (finish.tv_usec - start.tv_usec) / 1000000.;
 	printf("Duration: %2.1lf seconds.\n", duration);
 
-	// Transfer aborted ? Set hw link error
-	send_ti_file_exit: if (ret) {
-		tiemu_err(ret, "error in send_ti_file");
-		io_bit_set(0x0d, 7);
-		// SLE=1
+	if (ret)
+		send_ti_error(ret);
+
+	return ret;
+}
+
+// Restore link cable use
+void send_ti_end(void) {
+	// Cancelled: what is still queued must not reach the calc after the session
+	if (send_abort)
 		df_reinit();
+
+	sip = 0;
+}
+
+// Any thread. The send in progress fails with ERROR_ABORT at its next link slice.
+void send_ti_abort(void) {
+	send_abort = 1;
+}
+
+int send_ti_file(const char *filename) {
+	// Check for TI file
+	if (!is_68k_file(filename))
+		return ERR_NOT_TI_FILE;
+
+	if (!send_ti_begin()) {
+		send_ti_next(filename);
+		send_ti_end();
 	}
 
 	return 0;
@@ -619,14 +770,44 @@ int ti68k_linkport_ready(void) {
 	return !ret;
 }
 
+/*
+ The variable received last stays in memory until the user picks where it
+ goes, then it is written once, straight to that file. recfile runs on the
+ engine thread and the save on the UI thread, they hand it over atomically.
+ */
+static FileContent *received = NULL;
+
+static FileContent *recfile_take(void) {
+	return __sync_lock_test_and_set(&received, NULL);
+}
+
+void recfile_drop(void) {
+	FileContent *content = recfile_take();
+
+	if (content)
+		tifiles_content_delete_regular(content);
+}
+
+int recfile_save(const char *filename) {
+	FileContent *content = recfile_take();
+	int ret;
+
+	if (content == NULL)
+		return -1;
+
+	ret = tifiles_file_write_regular(filename, content, NULL);
+	tifiles_content_delete_regular(content);
+
+	return ret;
+}
+
 int recfile(void) {
 	int ret;
-	char src_fn[1024];
 	char dst_fn[1024];
 	VarEntry *ve;
-
-	if (TMP_DIR == NULL )
-		return 0;
+	FileContent *content;
+	int size = 0;
+	int i;
 
 	recfile_flag = 0;
 
@@ -650,23 +831,28 @@ int recfile(void) {
 			goto recfile_end;
 	}
 
-	// Receive variable in non-silent mode
-	strcpy(src_fn, TMP_DIR);
-	strcat(src_fn, "/");
-	strcat(src_fn, "file.rec");
+	// Receive variable in non-silent mode, in memory
+	content = tifiles_content_create_regular(calc_handle->model);
+	if (content == NULL)
+		goto recfile_end;
 
-	ret = ticalcs_calc_recv_var_ns2(calc_handle, MODE_NORMAL, src_fn, &ve);
+	ret = ticalcs_calc_recv_var_ns(calc_handle, MODE_NORMAL, content, &ve);
 
 	// Check for error
 	if (ret) {
+		tifiles_content_delete_regular(content);
+
 		io_bit_set(0x0d, 7);
 		// SLE=1
-		t2f_flag = f2t_flag = 0;
+		df_reinit();
 
 		tiemu_err(ret, NULL );
 		goto recfile_end;
 	}
 
+	for (i = 0; i < content->num_entries; i++)
+		size += content->entries[i]->size;
+
 	// Construct filename
 	strcpy(dst_fn, "");
 	//strcat(dst_fn, "/");
@@ -688,17 +874,24 @@ int recfile(void) {
 		strcat(dst_fn, tifiles_fext_of_group(linkp.calc_model));
 	}
 
+	// a variable nobody saved yet is replaced
+	content = __sync_lock_test_and_set(&received, content);
+	if (content)
+		tifiles_content_delete_regular(content);
+
 	if (DbusJNIenv != NULL )
 	{
-		jstring jSrc = (*DbusJNIenv)->NewStringUTF(DbusJNIenv, src_fn);
 		jstring jDst = (*DbusJNIenv)->NewStringUTF(DbusJNIenv, dst_fn);
 
 		jclass class = (*DbusJNIenv)->FindClass(DbusJNIenv,
 				"com/graph89/emulationcore/TIEmuThread");
 		jmethodID method = (*DbusJNIenv)->GetStaticMethodID(DbusJNIenv, class, "ReceiveFile",
-				"(Ljava/lang/String;Ljava/lang/String;)V");
+				"(Ljava/lang/String;I)V");
+
+		(*DbusJNIenv)->CallStaticVoidMethod(DbusJNIenv, class, method, jDst, (jint)size);
 
-		(*DbusJNIenv)->CallStaticIntMethod(DbusJNIenv, class, method, jSrc, jDst);
+		(*DbusJNIenv)->DeleteLocalRef(DbusJNIenv, jDst);
+		(*DbusJNIenv)->DeleteLocalRef(DbusJNIenv, class);
 	}
 
 	recfile_end: rip = 0;
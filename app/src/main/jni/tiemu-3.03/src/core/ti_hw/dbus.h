@@ -39,8 +39,14 @@ extern uint8_t (*hw_dbus_getbyte)	(void);
 extern int     (*hw_dbus_checkread)	(void);
 
 int send_ti_file(const char *filename);
+int send_ti_begin(void);
+int send_ti_next(const char *filename);
+void send_ti_end(void);
+void send_ti_abort(void);
 
 int recfile(void);
+int recfile_save(const char *filename);
+void recfile_drop(void);
 
 /* Variables */
 
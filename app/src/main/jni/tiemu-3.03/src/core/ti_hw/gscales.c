@@ -42,6 +42,7 @@
 #include "m68k.h"
 #include "images.h"
 #include "ti68k_def.h"
+#include "gscales.h"
 
 #define BUFSIZE			16	// store 16 plane addresses
 #define UPDATE_PLANES	16	// must be a multiple of BUFSIZE
@@ -51,6 +52,76 @@ uint8_t *lcd_planebufs[3];
 int lcd_changed = 0;
 int ngc = 1;
 
+/*
+	Time-integrated grayscale.
+	Every pixel adds up the lcd_tick cycles it was on, from one plane switch
+	to the next, so a plane counts exactly as long as it was displayed
+	whatever the sequence. Once per UPDATE_PLANES switches the sums become
+	a frame of LCD_GRAY_LEVELS levels (0 = never on) and start over.
+*/
+uint8_t * volatile lcd_gray_frame = NULL;	// LCDMEM_W * LCDMEM_H levels, last published
+
+static uint32_t lcd_accum[LCDMEM_W * LCDMEM_H];
+static uint32_t lcd_accum_ticks;
+static uint8_t lcd_gray_frames[2][LCDMEM_W * LCDMEM_H];
+static const uint8_t *shown_plane;		// copy of the plane on screen since shown_tick
+static unsigned long shown_tick;
+
+static void accumulate_plane(const uint8_t *plane, uint32_t ticks)
+{
+	int i, j;
+
+	for (i = 0; i < LCDMEM_W * LCDMEM_H / 8; i++)
+	{
+		uint8_t b = plane[i];
+		uint32_t *a = &lcd_accum[i * 8];
+
+		if (!b)
+			continue;
+
+		for (j = 0; j < 8; j++)
+			if (b & (0x80 >> j))
+				a[j] += ticks;
+	}
+
+	lcd_accum_ticks += ticks;
+}
+
+static void publish_gray_frame(void)
+{
+	uint8_t *frame = lcd_gray_frames[lcd_gray_frame == lcd_gray_frames[0]];
+	uint64_t scale;
+	int i;
+
+	if (!lcd_accum_ticks)
+		return;
+
+	// level = accum * (LCD_GRAY_LEVELS - 1) / ticks, rounded, in 32.32 fixed point
+	// (ticks are cpu cycles, millions of them, accum <= ticks keeps it in 64 bits)
+	scale = ((uint64_t)(LCD_GRAY_LEVELS - 1) << 32) / lcd_accum_ticks;
+
+	for (i = 0; i < LCDMEM_W * LCDMEM_H; i++)
+	{
+		frame[i] = (uint8_t)((lcd_accum[i] * scale + 0x80000000U) >> 32);
+		lcd_accum[i] = 0;
+	}
+
+	lcd_accum_ticks = 0;
+	lcd_gray_frame = frame;
+	lcd_changed = 1;
+}
+
+static void reset_gray_frame(void)
+{
+	if (!shown_plane && !lcd_gray_frame)
+		return;
+
+	memset(lcd_accum, 0, sizeof(lcd_accum));
+	lcd_accum_ticks = 0;
+	shown_plane = NULL;
+	lcd_gray_frame = NULL;
+}
+
 /*
 	Grayscale management (common)
 */
@@ -96,8 +167,14 @@ static void process_address(uint32_t plane_addr)
 		}
 	}
 
+	// the plane that is replaced was on screen up to now
+	if (shown_plane)
+		accumulate_plane(shown_plane, (uint32_t)(tihw.lcd_tick - shown_tick));
+
 	lcd_addrs[cnt % BUFSIZE] = plane_addr;
 	memcpy(lcd_buffers[cnt % (BUFSIZE * 3)], &tihw.ram[plane_addr], 3840);
+	shown_plane = lcd_buffers[cnt % (BUFSIZE * 3)];
+	shown_tick = tihw.lcd_tick;
 	if (plane_addr == lcd_planes[0])
 	{
 		lcd_planebufs[0] = lcd_buffers[cnt % (BUFSIZE * 3)];
@@ -308,6 +385,8 @@ static void process_address(uint32_t plane_addr)
 		old_ngp = ngp;
 #endif /* 0 */
 
+		publish_gray_frame();
+
 		// now, determine number of grayscales (kevin)
 		if(ngp == 1)
 			ngc = 1;
@@ -419,6 +498,9 @@ void lcd_hook_hw2(int refresh)
 		lcd_planebufs[0] = &tihw.ram[tihw.lcd_adr];
 		ngc = 1;
 		lcd_changed = 1;
+
+		// planes stopped switching, the sums would span the pause
+		reset_gray_frame();
 	}	
 
 	// if refresh from CPU loop (m68k.c), search for opcode signature:
@@ -23,6 +23,8 @@
 #ifndef __TI68K_GSCALES__
 #define __TI68K_GSCALES__
 
+#define LCD_GRAY_LEVELS	16	// levels of lcd_gray_frame
+
 void lcd_hook_hw1(void);
 void lcd_hook_hw2(int refresh);
 
@@ -30,5 +32,6 @@ extern uint32_t lcd_planes[];
 extern uint8_t *lcd_planebufs[];
 extern int lcd_changed;
 extern int ngc;
+extern uint8_t * volatile lcd_gray_frame;
 
 #endif
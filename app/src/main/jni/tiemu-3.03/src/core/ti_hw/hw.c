@@ -51,6 +51,7 @@
 #include "ti68k_def.h"
 #include "gettimeofday.h"
 #include "gscales.h"
+#include "hw.h"
 
 // This is the ratio OSC1/(OSC2/2^5). We express everything else in fractions of OSC2/2^5.
 // On HW1, AI3 is triggered every ~10/7 of a second.
@@ -63,7 +64,139 @@ const unsigned int timer_masks[4] = {0, 15, 127, 8191};
 unsigned int timer_mask = 15;
 
 unsigned int cycle_instr = HW1_RATE;
-unsigned int cycle_count = 0;
+
+uint32_t hw_clock = 0;
+uint32_t hw_next_event = 0;
+
+// Maximum distance to the next event when nothing is scheduled, keeps the
+// wrap-around comparisons in hw_event_due() valid.
+#define HW_EVENT_IDLE	0x10000000
+
+typedef struct
+{
+	HwEventFunc	func;		// NULL if disabled
+	uint32_t	when;		// hw_clock value when due
+	unsigned int	period;		// reload value (0 = one-shot)
+} HwEvent;
+
+static HwEvent hw_events[HW_EVENT_MAX];
+
+static void hw_event_update_next(void)
+{
+	int32_t delta = HW_EVENT_IDLE;
+	int i;
+
+	for (i = 0; i < HW_EVENT_MAX; i++)
+	{
+		int32_t d = (int32_t)(hw_events[i].when - hw_clock);
+
+		if (!hw_events[i].func)
+			continue;
+		if (d < 0)
+			d = 0;
+		if (d < delta)
+			delta = d;
+	}
+
+	hw_next_event = hw_clock + delta;
+}
+
+/*
+	Schedule event 'id' to fire 'delay' cycles from now, then every
+	'period' cycles (or only once if period is 0).
+*/
+void hw_event_set(int id, unsigned int delay, unsigned int period, HwEventFunc func)
+{
+	hw_events[id].func = func;
+	hw_events[id].when = hw_clock + delay;
+	hw_events[id].period = period;
+
+	hw_event_update_next();
+}
+
+void hw_event_unset(int id)
+{
+	hw_events[id].func = NULL;
+
+	hw_event_update_next();
+}
+
+/*
+	Fire every event which is due. Called by the CPU loop once hw_clock
+	has reached hw_next_event.
+*/
+void hw_event_dispatch(void)
+{
+	int i;
+
+	while (hw_event_due())
+	{
+		for (i = 0; i < HW_EVENT_MAX; i++)
+		{
+			HwEvent *ev = &hw_events[i];
+			HwEventFunc func = ev->func;
+
+			if (!func || (int32_t)(hw_clock - ev->when) < 0)
+				continue;
+
+			if (ev->period)
+				ev->when += ev->period;
+			else
+				ev->func = NULL;
+
+			func();
+		}
+
+		hw_event_update_next();
+	}
+}
+
+/*
+	HW2 RTC time base. Real time is derived from elapsed OSC1 cycles on top
+	of a wall-clock timestamp, so the timer tick never queries the host clock.
+	The timestamp is refreshed once per engine slice by hw_rtc_sync().
+*/
+static int64_t rtc_base = 0;		// time (us) at rtc_base_clock
+static uint32_t rtc_base_clock = 0;	// hw_clock value at rtc_base
+static int64_t rtc_ref = 0;			// time (us) of the last RTC increment
+
+static unsigned int timer;			// timer ticks, see hw_update()
+
+// OSC1 frequency: cycle_instr cycles per timer tick, 2^14 ticks per second
+int64_t hw_rtc_time(void)
+{
+	return rtc_base + (int64_t)(uint32_t)(hw_clock - rtc_base_clock) * 1000000 / ((int64_t)cycle_instr << 14);
+}
+
+void hw_rtc_set_base(int64_t usec)
+{
+	rtc_base = usec;
+	rtc_base_clock = hw_clock;
+}
+
+void hw_rtc_sync(void)
+{
+	struct timeval tv;
+
+	gettimeofday(&tv, NULL);
+	hw_rtc_set_base((int64_t)tv.tv_sec * 1000000 + tv.tv_usec);
+}
+
+/*
+	Restart the cycle counter, the timer tick phase and the RTC time base
+	from a fixed point. Deterministic runs call this before loading their
+	start state so that the same state always replays the same way.
+*/
+void hw_clock_reset(int64_t usec)
+{
+	hw_clock = 0;
+	timer = 0;
+	rtc_ref = usec;
+	hw_rtc_set_base(usec);
+
+	memset(hw_events, 0, sizeof(hw_events));
+	hw_event_set(HW_EVENT_TICK, cycle_instr, cycle_instr, hw_update);
+}
 
 void set_prescaler(int i)
 {
@@ -77,9 +210,15 @@ void set_prescaler(int i)
 int hw_init(void)
 {
 	cycle_instr = HW1_RATE;
-	cycle_count = 0;
 	timer_mask = 15;
 
+	hw_clock = 0;
+	memset(hw_events, 0, sizeof(hw_events));
+	hw_event_update_next();
+
+	rtc_ref = 0;
+	hw_rtc_sync();
+
     IMG_INFO *img = &img_infos;
 
     // Get infos from image
@@ -129,6 +268,8 @@ int hw_init(void)
     else
         cycle_instr = HW4_RATE;
 
+    hw_event_set(HW_EVENT_TICK, cycle_instr, cycle_instr, hw_update);
+
     return 0;
 }
 
@@ -162,12 +303,11 @@ int hw_exit(void)
 volatile int lcd_flag = !0;
 
 /*
-    This function is called by do_cycles to regularly updates the hardware.
+    This function is scheduled as HW_EVENT_TICK to regularly update the hardware.
     Rate is the same as the timer tick rate.
 */
 void hw_update(void)
 {
-	static unsigned int timer;
 	//time_t curr_clock;
 
 	// OSC2 enable (bit clear means oscillator stopped!)
@@ -186,22 +326,23 @@ void hw_update(void)
 		}
 	}
 
-	// Increment HW2 RTC timer every 8192 seconds
-	if ((tihw.hw_type >= HW2) && io2_bit_tst(0x1f, 2) && io2_bit_tst(0x1f, 1))
+	// Increment HW2 RTC timer every 8192 seconds (checked every 1/16 s)
+	if (!(timer & 1023) && (tihw.hw_type >= HW2) && io2_bit_tst(0x1f, 2) && io2_bit_tst(0x1f, 1))
 	{
-		static struct timeval ref = {0, 0};
-		struct timeval tmp = {0, 0};
-		gettimeofday(&tmp, NULL);
+		int64_t now = hw_rtc_time();
 
-		// Check if 8192 seconds elapsed, avoiding 32-bit overflow
-		if((unsigned)(tmp.tv_sec-ref.tv_sec)*500000u
-		   + ((unsigned)(tmp.tv_usec-ref.tv_usec)>>1u) >= 4096000000u)
+		if (now - rtc_ref >= 8192 * (int64_t)1000000)
 		{
-			gettimeofday(&ref, NULL);
+			rtc_ref = now;
 			tihw.rtc_value++;
 		}
 	}
 
+	// Fold elapsed cycles into the time base every second so that
+	// hw_clock - rtc_base_clock never wraps between two hw_rtc_sync().
+	if (!(timer & 16383))
+		hw_rtc_set_base(hw_rtc_time());
+
 	// Toggles every FS (every time the LCD restarts at line 0) -> 90 Hz ~ timer/192
 	// Don't use the actual LCD count (and use 192 rather than 182) to keep exposure
 	// times consistent
@@ -299,16 +440,11 @@ void hw_update(void)
 
 
 /*
-    This function is used to regularly update the hardware from CPU loop. 
+    The hardware is regularly updated from the CPU loop through the event
+    scheduler above.
     Note that CPU is running against OSC1 (HW1 @10Mhz, HW2 @12MHz)
     while hardware is synched against OSC2 (HW1 @700kHz,  HW2 @~520 kHz).
     OSC2 is the timing base for the timers, the link I/O hardware and 
     (HW1 only) the LCD controller.
     These 2 oscillators are independants.
-
-    See hw.h for inline definition.
-*/
-/*
-static void INLINE do_cycles(void);
 */
-
@@ -28,14 +28,18 @@
 #ifndef __TI68K_HARDWARE__
 #define __TI68K_HARDWARE__
 
+#include <stdint.h>
+
 int hw_init(void);
 int hw_reset(void);
 int hw_exit(void);
 
-int hw_update(void);
+void hw_update(void);
 
-extern unsigned int cycle_instr;
-extern unsigned int cycle_count;
+int64_t hw_rtc_time(void);
+void hw_rtc_set_base(int64_t usec);
+void hw_rtc_sync(void);
+void hw_clock_reset(int64_t usec);
 
 #ifdef __WIN32__
 #define INLINE __inline
@@ -43,13 +47,27 @@ extern unsigned int cycle_count;
 #define INLINE __inline
 #endif
 
-static void INLINE do_cycles(void)
+/*
+    Hardware event scheduler: the CPU loop runs until the earliest
+    pending event is due instead of polling the hardware every opcode.
+*/
+
+#define HW_EVENT_TICK	0	// OSC2/2^5 timer tick (hw_update)
+#define HW_EVENT_MAX	4
+
+typedef void (*HwEventFunc)(void);
+
+extern unsigned int cycle_instr;
+extern uint32_t hw_clock;		// OSC1 cycles elapsed (wraps around)
+extern uint32_t hw_next_event;	// hw_clock value of the earliest pending event
+
+void hw_event_set(int id, unsigned int delay, unsigned int period, HwEventFunc func);
+void hw_event_unset(int id);
+void hw_event_dispatch(void);
+
+static INLINE int hw_event_due(void)
 {
-    if(cycle_count >= cycle_instr)
-    {
-        hw_update();
-        cycle_count -= cycle_instr;
-    }
+	return (int32_t)(hw_clock - hw_next_event) >= 0;
 }
 
 #endif
@@ -150,19 +150,17 @@ void hw_m68k_irq(int n)
 */
 int hw_m68k_run(int n)
 {
-	int i;
-
-    for(i = 0; i < n; ++i)
+	while (n > 0)
 	{
-		uae_u32 opcode;
-		unsigned int insn_cycles;
-
 		// refresh hardware
-		do_cycles();
+		if (hw_event_due())
+			hw_event_dispatch();
 
 		// OSC1 stopped ? Refresh hardware and wake-up on interrupt. No opcode execution.
 		if ((regs.spcflags & SPCFLAG_STOP))
 	    {
+			unsigned int skip = 4;
+
 			if(pending_ints)
 			{
 				int level;
@@ -177,11 +175,30 @@ int hw_m68k_run(int n)
 				}
 			}
 
-			cycle_count += 4; // cycle count for hw.c timers
-			tihw.lcd_tick += 4; // used by grayscale for time plane exposure
+			// still stopped: nothing happens until the next hardware event,
+			// so skip straight to it (4 cycles per idle instruction slot).
+			if (regs.spcflags & SPCFLAG_STOP)
+			{
+				skip = (hw_next_event - hw_clock + 3) & ~3u;
+				if (skip > (unsigned int)n * 4)
+					skip = (unsigned int)n * 4;
+				if (skip < 4)
+					skip = 4;
+			}
+
+			hw_clock += skip; // cycle count for hw.c timers
+			tihw.lcd_tick += skip; // used by grayscale for time plane exposure
+			n -= skip / 4;
 
 			continue;
-	    }		
+	    }
+
+		// run opcodes until the next hardware event is due
+		do
+		{
+			uae_u32 opcode;
+			unsigned int insn_cycles;
+
 /*
 		// search for code breakpoint
         if(((l = bkpts.code) != NULL) && !(regs.spcflags & SPCFLAG_DBSKIP)
@@ -238,67 +255,71 @@ int hw_m68k_run(int n)
 		}
 */
 
-		// search for next opcode and execute it
-		opcode = get_iword_prefetch (0);
-		insn_cycles = (*cpufunctbl[opcode])(opcode) * 2; // increments PC automatically now
-		//cycles += insn_cycles; // cycle count for hw_m68k_run loop
-		cycle_count += insn_cycles; // cycle count for hw.c timers
+			// search for next opcode and execute it
+			opcode = get_iword_prefetch (0);
+			insn_cycles = (*cpufunctbl[opcode])(opcode) * 2; // increments PC automatically now
+			//cycles += insn_cycles; // cycle count for hw_m68k_run loop
+			hw_clock += insn_cycles; // cycle count for hw.c timers
 
-		if (enable_grayscale)
-		{
-			tihw.lcd_tick += insn_cycles; // used by grayscale for time plane exposure
-			lcd_hook_hw2(0);
-		}
+			if (enable_grayscale)
+			{
+				tihw.lcd_tick += insn_cycles; // used by grayscale for time plane exposure
+				lcd_hook_hw2(0);
+			}
 
-		if (recfile_flag)
-			recfile();
+			if (recfile_flag)
+				recfile();
 
-		// process (pending) interrupts
-		if(pending_ints)
-		{
-			int level;
-			GET_INT_LVL(level);
+			// process (pending) interrupts
+			if(pending_ints)
+			{
+				int level;
+				GET_INT_LVL(level);
 
-			Interrupt2 (level);
-			regs.stopped = 0;
-		}
+				Interrupt2 (level);
+				regs.stopped = 0;
+			}
 
-		// management of special flags
-        if(regs.spcflags) 
-	    {
-    	    if(regs.spcflags & SPCFLAG_ADRERR) 
-	        {
-	            Exception(3,0);
-				unset_special(SPCFLAG_ADRERR);
-	        }
+			// management of special flags
+	        if(regs.spcflags) 
+		    {
+	    	    if(regs.spcflags & SPCFLAG_ADRERR) 
+		        {
+		            Exception(3,0);
+					unset_special(SPCFLAG_ADRERR);
+		        }
 	  
-	        if (regs.spcflags & SPCFLAG_DOTRACE) 
-	        {
-	            Exception(9,0);
-	        }
+		        if (regs.spcflags & SPCFLAG_DOTRACE) 
+		        {
+		            Exception(9,0);
+		        }
 	      
-	        if (regs.spcflags & SPCFLAG_TRACE) 
-	        {
-				unset_special(SPCFLAG_TRACE);
-			}
+		        if (regs.spcflags & SPCFLAG_TRACE) 
+		        {
+					unset_special(SPCFLAG_TRACE);
+				}
 
-	        if (regs.spcflags & SPCFLAG_BRK) 
-	        {		
-				unset_special(SPCFLAG_BRK);
-				return DBG_BREAK;
-	        }
+		        if (regs.spcflags & SPCFLAG_BRK) 
+		        {		
+					unset_special(SPCFLAG_BRK);
+					return DBG_BREAK;
+		        }
 
-	        if(regs.spcflags & SPCFLAG_DBTRACE) 
-	        {
-				unset_special(SPCFLAG_DBTRACE);
-				return DBG_TRACE;
-	        }
+		        if(regs.spcflags & SPCFLAG_DBTRACE) 
+		        {
+					unset_special(SPCFLAG_DBTRACE);
+					return DBG_TRACE;
+		        }
 
-            if(regs.spcflags & SPCFLAG_DBSKIP)
-			{
-                unset_special(SPCFLAG_DBSKIP);
-			}
-	    }
+	            if(regs.spcflags & SPCFLAG_DBSKIP)
+				{
+	                unset_special(SPCFLAG_DBSKIP);
+				}
+		    }
+
+			--n;
+		}
+		while (n > 0 && !hw_event_due() && !(regs.spcflags & SPCFLAG_STOP));
 	}
 
 	return 0;
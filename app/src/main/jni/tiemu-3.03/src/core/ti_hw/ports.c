@@ -134,7 +134,7 @@ void io_put_byte(uint32_t addr, uint8_t arg)
         break;
         case 0x0f: 	// rw <76543210>
 			// write a byte to the transmit buffer (1 byte buffer)
-			io_bit_clr(0x0d, 0);	// STX=0 (tx reg is full)
+			io_bit_clr(0x0d, 6);	// STX=0 (tx reg is full), the mapper sets it back once the byte is gone
             hw_dbus_putbyte(arg);
 
 			if(logger.link_buf && logger.link_mask & 1)
@@ -291,8 +291,8 @@ uint8_t io_get_byte(uint32_t addr)
         break;
         case 0x0d:	// r- <76543210>
 			// reading the DBus status register resets that register (as specified by TI)
-			// but don't touch the SLE bit
-			tihw.io[0x0d] = (v & 0x80) | 0x40;
+			// but don't touch the SLE bit, nor STX while the tx reg is still full
+			tihw.io[0x0d] = v & 0xc0;
 		break;
         case 0x0e:	// rw <....3210>
 			// %[2-3]: read red/white wires if raw access
@@ -304,8 +304,8 @@ uint8_t io_get_byte(uint32_t addr)
             break;
         case 0x0f: 	// rw <76543210>
 			// read one byte from receive (incoming) buffer
+			io_bit_clr(0x0d, 5);	// SRX=0 (rx reg is empty), unless the getbyte refills it
             v = hw_dbus_getbyte();
-			io_bit_clr(0x0d, 5);	// SRX=0 (rx reg is empty)
 
 			if(logger.link_buf && logger.link_mask & 2)
 				logger.link_buf[logger.link_ptr++ % logger.link_size] = (uint16_t)(v | (2 << 8));
@@ -38,6 +38,7 @@
 #include "images.h"
 #include "ti68k_def.h"
 #include "rtc_hw3.h"
+#include "hw.h"
 #include "gettimeofday.h"
 
 int rtc3_init(void)
@@ -84,12 +85,12 @@ int rtc3_exit(void)
 // FIXME: kill this stupid wrapper which loses precision and use gettimeofday
 //        and struct timeval directly instead
 // Problem: We'll have to bump the savefile revision if we do that. :-(
+// Time comes from the emulated clock (see hw_rtc_time) rather than the host.
 void rtc3_get_time(TTIME* tt)
 {
-	struct timeval tp;
-	gettimeofday(&tp, NULL);
-	tt->s = tp.tv_sec;
-	tt->ms = tp.tv_usec/1000;
+	int64_t usec = hw_rtc_time();
+	tt->s = (time_t)(usec / 1000000);
+	tt->ms = (int)(usec % 1000000) / 1000;
 }
 
 // tt = t2 - t1 and take care of reporting milli-seconds
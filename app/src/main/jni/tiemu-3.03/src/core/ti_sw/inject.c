@@ -0,0 +1,293 @@
+/* Hey EMACS -*- linux-c -*- */
+
+/*  TiEmu - Tiemu Is an EMUlator
+ *
+ *  Copyright (c) 2012-2013, Dritan Hashorva
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street - Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+/*
+    Direct variable injection (fast install).
+
+	Instead of going through the link protocol, the variables of a file are
+	created by the OS itself: SymAdd and HeapAlloc are called on the emulated
+	CPU while the calculator idles, and the data is copied straight into the
+	new handle. The OS keeps the VAT and the heap consistent, we only pick the
+	moment.
+
+	Everything happens inside a transaction: registers, RAM and I/O ports are
+	saved first and put back if anything looks wrong (a call that doesn't
+	return, an error thrown by the OS, a NULL handle). The caller then falls
+	back to the link protocol, so the worst case is the old speed.
+*/
+
+#include <stdio.h>
+#include <string.h>
+
+#include "libuae.h"
+#include "ti68k_def.h"
+#include "ti68k_int.h"
+#include "mem.h"
+#include "m68k.h"
+#include "romcalls.h"
+#include "handles.h"
+#include "timem.h"
+#include "vat.h"
+#include "inject.h"
+
+#define ROMCALL_SymAdd		0x5C
+#define ROMCALL_HeapAlloc	0x90
+
+#define IDLE_BUDGET			2000000	// instructions to wait for the OS to idle
+#define CALL_BUDGET			4000000	// instructions a ROM call may take
+#define RETURN_ADDR			0x000040	// exception vectors, never executed
+
+#define SYM_ENTRY_HANDLE	12			// offset of the handle in a SYM_ENTRY
+
+typedef struct
+{
+	struct regstruct	regs;
+	uint8_t*			ram;
+	uint8_t*			io;
+} InjectState;
+
+static int is_pedrom(void)
+{
+	return mem_rd_word(0x32) == (('R'<<8)+'O');
+}
+
+/*
+	Run until the OS sits in its idle loop, waiting for an interrupt. Nothing
+	holds a dereferenced handle there, so the heap may move.
+*/
+static int wait_for_idle(void)
+{
+	int i;
+
+	for(i = 0; i < IDLE_BUDGET; i++)
+	{
+		if(regs.spcflags & SPCFLAG_STOP)
+			return 0;
+
+		hw_m68k_run(1);
+	}
+
+	return -1;
+}
+
+static int state_save(InjectState *s)
+{
+	s->ram = g_malloc(tihw.ram_size);
+	s->io = g_malloc(tihw.io_size);
+	if(s->ram == NULL || s->io == NULL)
+		return -1;
+
+	MakeSR();
+	memcpy(&s->regs, &regs, sizeof(regs));
+	memcpy(s->ram, tihw.ram, tihw.ram_size);
+	memcpy(s->io, tihw.io, tihw.io_size);
+
+	return 0;
+}
+
+static void state_restore(InjectState *s, int memory)
+{
+	if(memory)
+	{
+		memcpy(tihw.ram, s->ram, tihw.ram_size);
+		memcpy(tihw.io, s->io, tihw.io_size);
+	}
+
+	memcpy(&regs, &s->regs, sizeof(regs));
+
+	m68k_setpc(m68k_getpc());
+	MakeFromSR();
+}
+
+static void state_free(InjectState *s)
+{
+	g_free(s->ram);
+	g_free(s->io);
+}
+
+/*
+	Call a ROM call with long arguments, in user mode with interrupts masked,
+	on the stack of the code that went idle. Returns -1 if it didn't come back.
+*/
+static int call_romcall(int id, const uint32_t *args, int nargs, uint32_t *d0)
+{
+	uint32_t addr;
+	uint32_t sp;
+	int i;
+
+	romcalls_get_symbol_address(id, &addr);
+
+	sp = m68k_areg(regs, 7);
+	for(i = nargs - 1; i >= 0; i--)
+	{
+		sp -= 4;
+		mem_wr_long(sp, args[i]);
+	}
+	sp -= 4;
+	mem_wr_long(sp, RETURN_ADDR);
+
+	m68k_areg(regs, 7) = sp;
+	m68k_setpc(addr);
+
+	for(i = 0; i < CALL_BUDGET; i++)
+	{
+		if(m68k_getpc() == RETURN_ADDR)
+		{
+			*d0 = m68k_dreg(regs, 0);
+			m68k_areg(regs, 7) += 4 * nargs;
+			return 0;
+		}
+
+		hw_m68k_run(1);
+	}
+
+	return -1;
+}
+
+// "\0folder\\name\0" below the stack, returns the address of the last zero (SYM_STR)
+static uint32_t push_sym_str(const char *folder, const char *name)
+{
+	uint32_t sp = m68k_areg(regs, 7);
+	int len = strlen(folder) + 1 + strlen(name);
+	uint32_t str = (sp - (len + 2)) & ~1;
+	uint32_t p = str;
+	int i;
+
+	mem_wr_byte(p++, 0);
+	for(i = 0; folder[i]; i++)
+		mem_wr_byte(p++, folder[i]);
+	mem_wr_byte(p++, '\\');
+	for(i = 0; name[i]; i++)
+		mem_wr_byte(p++, name[i]);
+	mem_wr_byte(p, 0);
+
+	m68k_areg(regs, 7) = str & ~1;
+	return p;
+}
+
+static int inject_entry(VarEntry *ve)
+{
+	uint32_t args[1];
+	uint32_t hsym, handle;
+	uint32_t sym, addr;
+	uint32_t sp = m68k_areg(regs, 7);
+	uint32_t i;
+
+	// HSym: folder handle in the high word, offset of the SYM_ENTRY in the low one
+	args[0] = push_sym_str(ve->folder, ve->name);
+	if(call_romcall(ROMCALL_SymAdd, args, 1, &hsym) || (hsym >> 16) == 0)
+		return -1;
+	m68k_areg(regs, 7) = sp;
+
+	args[0] = ve->size;
+	if(call_romcall(ROMCALL_HeapAlloc, args, 1, &handle) || (handle & 0xffff) == 0)
+		return -1;
+	handle &= 0xffff;
+
+	// HeapAlloc may have moved the folder, deref it now
+	sym = heap_deref(hsym >> 16) + (hsym & 0xffff);
+	mem_wr_word(sym + SYM_ENTRY_HANDLE, (uint16_t)handle);
+
+	addr = heap_deref(handle);
+	for(i = 0; i < ve->size; i++)
+		mem_wr_byte(addr + i, ve->data[i]);
+
+	return 0;
+}
+
+// Everything we can't do as safely as the link protocol is left to it
+static int can_inject(FileContent *content)
+{
+	int i;
+
+	for(i = 0; i < content->num_entries; i++)
+	{
+		VarEntry *ve = content->entries[i];
+
+		if(ve->attr != ATTRB_NONE || ve->size < 2 || ve->size > 0xfff0)
+			return 0;
+		if(!strlen(ve->folder) || strlen(ve->folder) > 8 || !strlen(ve->name) || strlen(ve->name) > 8)
+			return 0;
+		if(!sym_find_folder(ve->folder) || sym_find_handle(ve->folder, ve->name))
+			return 0;
+	}
+
+	return content->num_entries > 0;
+}
+
+/*
+	Returns 0 if every variable of the file was created, non zero if nothing
+	was changed and the file has to go through the link.
+*/
+int vat_inject_file(const char *filename)
+{
+	FileContent *content;
+	InjectState state;
+	int ret;
+	int i;
+
+	if(tihw.calc_type == TI92 || is_pedrom())
+		return -1;
+	if(!tifiles_file_is_regular(filename) || tifiles_file_is_tigroup(filename))
+		return -1;
+
+	content = tifiles_content_create_regular(ti68k_calc_to_libti_calc());
+	if(content == NULL)
+		return -1;
+
+	// releases the content on error
+	if(tifiles_file_read_regular(filename, content))
+		return -1;
+
+	if(!can_inject(content) || wait_for_idle())
+	{
+		tifiles_content_delete_regular(content);
+		return -1;
+	}
+
+	memset(&state, 0, sizeof(state));
+
+	if(state_save(&state))
+	{
+		state_free(&state);
+		tifiles_content_delete_regular(content);
+		return -1;
+	}
+
+	// user mode, interrupts masked. The idle state comes back with the registers.
+	MakeSR();
+	regs.sr = 0x0700;
+	MakeFromSR();
+	regs.stopped = 0;
+	unset_special(SPCFLAG_STOP);
+
+	for(i = 0; i < content->num_entries; i++)
+		if(inject_entry(content->entries[i]))
+			break;
+
+	ret = (i == content->num_entries) ? 0 : -1;
+
+	state_restore(&state, ret != 0);
+	state_free(&state);
+	tifiles_content_delete_regular(content);
+
+	return ret;
+}
@@ -427,6 +427,46 @@ static int sym_find_handle_92(const char *dirname, const char *filename)
 	return 0;
 }
 
+/*
+	Handle of the variable list of a folder, 0 if there is no such folder
+*/
+int sym_find_folder(const char *dirname)
+{
+	uint32_t fa;
+	uint16_t fs;
+	int nfolders;
+	int i;
+	int handle;
+
+	if(tihw.calc_type == TI92)
+		return 0;
+
+	if(strcmp(img_infos.version, "2.00") >= 0)
+		handle = get_folder_list_handle();	// AMS2 (dynamic)
+	else
+		handle = 0x08;	// AMS1 (static)
+
+	if(handle == -1)
+		return 0;
+
+	heap_get_block_addr_and_size(handle, &fa, &fs);
+
+	nfolders = mem_rd_word(fa+2);
+	fa += 4;
+
+	for(i=0; i<nfolders; i++)
+	{
+		TI89_SYM_ENTRY se;
+
+		memcpy(&se, ti68k_get_real_address(fa + i * sizeof(TI89_SYM_ENTRY)), sizeof(TI89_SYM_ENTRY));
+
+		if (!strncmp (se.name, dirname, 8))
+			return GUINT16_FROM_BE(se.handle);
+	}
+
+	return 0;
+}
+
 /*
 	Allocate and create a tree
 */
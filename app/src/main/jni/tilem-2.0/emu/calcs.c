@@ -69,6 +69,17 @@ void tilem_calc_reset(TilemCalc* calc)
 		(*calc->hw.reset)(calc);
 }
 
+time_t tilem_calc_get_time(TilemCalc* calc)
+{
+	time_t t;
+
+	if (calc->fixedtime)
+		return calc->fixedtime;
+
+	time(&t);
+	return t;
+}
+
 TilemCalc* tilem_calc_new(char id)
 {
 	int i;
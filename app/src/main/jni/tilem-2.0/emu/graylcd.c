@@ -32,8 +32,9 @@ static void tmr_screen_update(TilemCalc *calc, void *data)
 {
 	TilemGrayLCD *glcd = data;
 	byte *np, *op, nb, ob, d;
-	int i, j, n;
+	int i, j, n, nbytes;
 	dword delta;
+	uint64_t nw, ow;
 
 	glcd->t++;
 
@@ -48,11 +49,32 @@ static void tmr_screen_update(TilemCalc *calc, void *data)
 	glcd->oldbits = np;
 	glcd->newbits = op;
 	n = 0;
+	nbytes = glcd->bwidth * glcd->height;
+
+	for (i = 0; i < nbytes; i++) {
+		/* most of the screen doesn't change between samples;
+		   skip unchanged bytes eight at a time */
+		if (!(i & 7) && i + 8 <= nbytes) {
+			memcpy(&nw, np, sizeof(nw));
+			memcpy(&ow, op, sizeof(ow));
+			if (nw == ow) {
+				i += 7;
+				np += 8;
+				op += 8;
+				n += 64;
+				continue;
+			}
+		}
 
-	for (i = 0; i < glcd->bwidth * glcd->height; i++) {
 		nb = *np;
 		ob = *op;
 		d = nb ^ ob;
+		if (!d) {
+			np++;
+			op++;
+			n += 8;
+			continue;
+		}
 		for (j = 0; j < 8; j++) {
 			if (d & (0x80 >> j)) {
 				delta = glcd->t - glcd->tchange[n];
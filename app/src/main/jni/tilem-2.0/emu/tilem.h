@@ -21,6 +21,7 @@
 #ifndef _TILEM_H
 #define _TILEM_H
 
+#include <time.h>
 #include "tilemint.h"
 
 #ifdef __cplusplus
@@ -804,6 +805,9 @@ struct _TilemCalc {
 
 	byte battery;		/* Battery level (units of 0.1 V) */
 
+	time_t fixedtime;	/* If nonzero, the clock reads this time
+				   instead of the host time */
+
 	dword* hwregs;
 };
 
@@ -828,6 +832,9 @@ void tilem_calc_free(TilemCalc* calc);
 /* Reset calculator (essentially, remove and replace batteries.) */
 void tilem_calc_reset(TilemCalc* calc);
 
+/* Get the current time as seen by the calculator's clock. */
+time_t tilem_calc_get_time(TilemCalc* calc);
+
 /* Load calculator state from ROM and/or save files. */
 int tilem_calc_load_state(TilemCalc* calc, FILE* romfile, FILE* savfile);
 
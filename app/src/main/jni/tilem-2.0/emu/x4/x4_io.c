@@ -269,7 +269,7 @@ byte x4_z80_in(TilemCalc* calc, dword port)
 	case 0x47:
 	case 0x48:
 		if (calc->hwregs[CLOCK_MODE] & 1) {
-			time(&curtime);
+			curtime = tilem_calc_get_time(calc);
 		}
 		else {
 			curtime = 0;
@@ -692,7 +692,7 @@ void x4_z80_out(TilemCalc* calc, dword port, byte value)
 		break;
 
 	case 0x40:
-		time(&curtime);
+		curtime = tilem_calc_get_time(calc);
 
 		if ((calc->hwregs[CLOCK_MODE] & 1) != (value & 1)) {
 			if (value & 1)
@@ -159,6 +159,10 @@ void tilem_var_entry_free(TilemVarEntry *tve);
 int tilem_link_send_file(TilemCalcEmulator *emu, const char *filename,
                           int slot, gboolean first, gboolean last);
 
+/* End a series whose last file was not sent with LAST set (the
+   transfer was cancelled), so the calc leaves the receive mode. */
+int tilem_link_end_send(TilemCalcEmulator *emu);
+
 /* The effective send file function. If there's no good reason, use tilem_link_send_file instead. */
 gboolean send_file_main(TilemCalcEmulator *emu, gpointer data);
 
@@ -635,6 +635,26 @@ int tilem_link_send_file(TilemCalcEmulator *emu, const char *filename,
 	//                          &send_file_finished, sf);
 }
 
+int tilem_link_end_send(TilemCalcEmulator *emu)
+{
+	CableHandle *cbl;
+	CalcHandle *ch;
+	FileContent *filec;
+	int e;
+
+	if (emu->calc->hw.model_id == TILEM_CALC_TI81)
+		return 0;
+
+	/* No variable, the last-var mode only sends the EOT */
+	filec = tifiles_content_create_regular(get_calc_model(emu->calc));
+	begin_link(emu, &cbl, &ch, _("Ending transfer"));
+	e = ticalcs_calc_send_var(ch, MODE_SEND_LAST_VAR, filec);
+	end_link(emu, cbl, ch);
+	tifiles_content_delete_regular(filec);
+
+	return (e != 0);
+}
+
 /**************** Get directory listing ****************/
 
 /* Make a copy of a TilemVarEntry */
@@ -18,7 +18,9 @@ tiemuwrapperjni.c \
 tilemwrapperjni.c \
 wabbitvar.c\
 wabbitlink.c\
-bootimage.c
+bootimage.c\
+inputlog.c\
+screenkernels.c
 
 LOCAL_CFLAGS := \
     -I$(WRAPPER_TOP)	 \
@@ -45,6 +47,8 @@ LOCAL_DISABLE_FATAL_LINKER_WARNINGS := true
 
 LOCAL_MODULE:= wrapper
 
+LOCAL_ARM_NEON := true
+
 LOCAL_SHARED_LIBRARIES := glib-2.0 ticonv-1.1.3 ticables2-1.3.3 tifiles2-1.1.5 ticalcs2-1.1.7 tiemu-3.03 tilem-2.0
 
 LOCAL_LDLIBS := -L$(SYSROOT)/usr/lib -llog
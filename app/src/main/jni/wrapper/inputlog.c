@@ -0,0 +1,297 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ * Deterministic (lockstep) mode.
+ *
+ * While an input log is recording or replaying, the emulators only see
+ * emulated time: the calculator clock starts from the time stored in the
+ * log header and advances with executed cycles, and key input is applied
+ * by the engine thread at the start of an engine slice instead of when the
+ * UI thread delivers it. Each key event is stamped with the slice it was
+ * applied in, so replaying the log against the same start state reproduces
+ * the run exactly.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdint.h>
+#include <stdbool.h>
+#include <pthread.h>
+#include <sys/time.h>
+#include <wrappercommon.h>
+#include <tiemuwrapper.h>
+#include <tilemwrapper.h>
+#include <androidlog.h>
+
+#define INPUT_LOG_MAGIC			"G89K"
+#define INPUT_LOG_VERSION		1
+#define INPUT_LOG_QUEUE_SIZE	256
+
+#define INPUT_ACTION_RELEASE	0
+#define INPUT_ACTION_PRESS		1
+#define INPUT_ACTION_BUFFER		2
+#define INPUT_ACTION_END		3
+
+typedef struct
+{
+	char magic[4];
+	int32_t version;
+	int32_t calc_type;
+	int32_t reserved;
+	double speed_coefficient;
+	int64_t start_time;		//calculator clock (us) at slice 0
+}input_log_header;
+
+typedef struct
+{
+	uint32_t slice;
+	int32_t key_code;
+	int32_t action;
+}input_log_record;
+
+static volatile int log_mode = INPUT_LOG_OFF;
+static FILE* log_file = NULL;
+static uint32_t log_slice = 0;
+static double saved_speed_coefficient = 0;
+
+static input_log_record next_record;
+static bool has_next_record = false;
+
+static pthread_mutex_t queue_lock = PTHREAD_MUTEX_INITIALIZER;
+static input_log_record queue[INPUT_LOG_QUEUE_SIZE];
+static int queue_count = 0;
+
+static void queue_push(int key_code, int action);
+static void apply_record(const input_log_record* record);
+static void read_next_record();
+static void set_fixed_time(int64_t usec);
+
+int graph89_input_log_start(const char* file_name, int replay)
+{
+	input_log_header header;
+
+	graph89_input_log_stop();
+
+	if (!is_tiemu && !is_tilem) return -1;
+
+	if (replay)
+	{
+		log_file = fopen(file_name, "rb");
+		if (!log_file) return -1;
+
+		if (fread(&header, sizeof(header), 1, log_file) != 1 || memcmp(header.magic, INPUT_LOG_MAGIC, 4)
+				|| header.version != INPUT_LOG_VERSION || header.calc_type != graph89_emulator_params.calc_type)
+		{
+			LOGE("Input log %s doesn't match this calculator", file_name);
+			fclose(log_file);
+			log_file = NULL;
+			return -2;
+		}
+
+		saved_speed_coefficient = graph89_emulator_params.speed_coefficient;
+		graph89_emulator_params.speed_coefficient = header.speed_coefficient;
+
+		read_next_record();
+	}
+	else
+	{
+		struct timeval tv;
+
+		log_file = fopen(file_name, "wb");
+		if (!log_file) return -1;
+
+		gettimeofday(&tv, NULL);
+
+		memset(&header, 0, sizeof(header));
+		memcpy(header.magic, INPUT_LOG_MAGIC, 4);
+		header.version = INPUT_LOG_VERSION;
+		header.calc_type = graph89_emulator_params.calc_type;
+		header.speed_coefficient = graph89_emulator_params.speed_coefficient;
+		header.start_time = (int64_t)tv.tv_sec * 1000000;
+
+		fwrite(&header, sizeof(header), 1, log_file);
+	}
+
+	pthread_mutex_lock(&queue_lock);
+	queue_count = 0;
+	pthread_mutex_unlock(&queue_lock);
+
+	log_slice = 0;
+	srand(1);
+	set_fixed_time(header.start_time);
+
+	graph89_emulator_params.is_deterministic = true;
+	log_mode = replay ? INPUT_LOG_REPLAY : INPUT_LOG_RECORD;
+
+	LOGI("Input log %s %s", replay ? "replaying" : "recording", file_name);
+
+	return 0;
+}
+
+void graph89_input_log_stop()
+{
+	if (log_mode == INPUT_LOG_OFF) return;
+
+	if (log_mode == INPUT_LOG_RECORD)
+	{
+		input_log_record end = { log_slice, 0, INPUT_ACTION_END };
+		fwrite(&end, sizeof(end), 1, log_file);
+	}
+	else
+	{
+		graph89_emulator_params.speed_coefficient = saved_speed_coefficient;
+	}
+
+	fclose(log_file);
+	log_file = NULL;
+	has_next_record = false;
+
+	log_mode = INPUT_LOG_OFF;
+	graph89_emulator_params.is_deterministic = false;
+	set_fixed_time(0);
+
+	LOGI("Input log stopped at slice %u", log_slice);
+}
+
+int graph89_input_log_mode()
+{
+	return log_mode;
+}
+
+//called by the engine thread at the start of every engine slice
+void graph89_input_log_slice()
+{
+	int i;
+
+	if (log_mode == INPUT_LOG_RECORD)
+	{
+		pthread_mutex_lock(&queue_lock);
+
+		for (i = 0; i < queue_count; ++i)
+		{
+			queue[i].slice = log_slice;
+			fwrite(&queue[i], sizeof(input_log_record), 1, log_file);
+			apply_record(&queue[i]);
+		}
+		queue_count = 0;
+
+		pthread_mutex_unlock(&queue_lock);
+	}
+	else if (log_mode == INPUT_LOG_REPLAY)
+	{
+		while (has_next_record && next_record.slice <= log_slice)
+		{
+			if (next_record.action == INPUT_ACTION_END)
+			{
+				graph89_input_log_stop();
+				return;
+			}
+
+			apply_record(&next_record);
+			read_next_record();
+		}
+
+		if (!has_next_record)
+		{
+			graph89_input_log_stop();
+			return;
+		}
+	}
+	else
+	{
+		return;
+	}
+
+	++log_slice;
+}
+
+void graph89_input_log_key(int key_code, int is_pressed)
+{
+	if (log_mode != INPUT_LOG_RECORD) return;
+
+	queue_push(key_code, is_pressed ? INPUT_ACTION_PRESS : INPUT_ACTION_RELEASE);
+}
+
+void graph89_input_log_keys(int* key_codes, int length)
+{
+	int i;
+
+	if (log_mode != INPUT_LOG_RECORD) return;
+
+	for (i = 0; i < length; ++i)
+	{
+		if (key_codes[i] == 0xFF) continue;
+
+		queue_push(key_codes[i], INPUT_ACTION_BUFFER);
+	}
+}
+
+///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+static void queue_push(int key_code, int action)
+{
+	pthread_mutex_lock(&queue_lock);
+
+	if (queue_count < INPUT_LOG_QUEUE_SIZE)
+	{
+		queue[queue_count].key_code = key_code;
+		queue[queue_count].action = action;
+		++queue_count;
+	}
+	else
+	{
+		LOGW("Input log queue full, key %d dropped", key_code);
+	}
+
+	pthread_mutex_unlock(&queue_lock);
+}
+
+static void apply_record(const input_log_record* record)
+{
+	int key_code = record->key_code;
+
+	if (record->action == INPUT_ACTION_BUFFER)
+	{
+		if (is_tiemu) tiemu_send_keys(&key_code, 1);
+		else if (is_tilem) tilem_send_keys(&key_code, 1);
+	}
+	else
+	{
+		if (is_tiemu) tiemu_send_key(key_code, record->action);
+		else if (is_tilem) tilem_send_key(key_code, record->action);
+	}
+}
+
+static void read_next_record()
+{
+	has_next_record = fread(&next_record, sizeof(next_record), 1, log_file) == 1;
+}
+
+static void set_fixed_time(int64_t usec)
+{
+	if (is_tiemu)
+	{
+		tiemu_set_fixed_time(usec);
+	}
+	else if (is_tilem)
+	{
+		tilem_set_fixed_time(usec);
+	}
+}
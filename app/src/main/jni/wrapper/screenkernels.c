@@ -0,0 +1,294 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ * Pixel kernels of the screen pipeline. Every ABI we ship has a guaranteed
+ * vector unit (NEON on armeabi-v7a and arm64-v8a, SSE2 on x86 and x86_64),
+ * so the implementation is picked at compile time. The scalar versions are
+ * the reference and are used on anything else.
+ */
+
+#include <string.h>
+#include <stdint.h>
+#include <screenkernels.h>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+	#include <arm_neon.h>
+	#define G89_NEON
+#elif defined(__SSE2__)
+	#include <emmintrin.h>
+	#define G89_SSE2
+#endif
+
+#if defined(G89_NEON)
+
+//byte masks (0x00/0xFF) -> 32 bit masks
+static inline void widen_mask(uint8x8_t mask, uint32x4_t* lo, uint32x4_t* hi)
+{
+	int16x8_t m16 = vmovl_s8(vreinterpret_s8_u8(mask));
+	*lo = vreinterpretq_u32_s32(vmovl_s16(vget_low_s16(m16)));
+	*hi = vreinterpretq_u32_s32(vmovl_s16(vget_high_s16(m16)));
+}
+
+#elif defined(G89_SSE2)
+
+static inline __m128i select_128(__m128i mask, __m128i a, __m128i b)
+{
+	return _mm_or_si128(_mm_and_si128(mask, a), _mm_andnot_si128(mask, b));
+}
+
+#endif
+
+//multiply / xorshift over 64 bit words. Not a CRC, only has to notice changes.
+uint64_t g89_hash(uint64_t hash, const uint8_t* data, int length)
+{
+	const uint64_t k = 0x9E3779B97F4A7C15ULL;
+	int i = 0;
+
+	for (; i + 8 <= length; i += 8)
+	{
+		uint64_t w;
+		memcpy(&w, data + i, sizeof(w));
+		hash = (hash ^ w) * k;
+		hash ^= hash >> 29;
+	}
+
+	for (; i < length; ++i)
+	{
+		hash = (hash ^ data[i]) * k;
+		hash ^= hash >> 29;
+	}
+
+	return hash;
+}
+
+void g89_expand_1bpp(uint32_t* target, const uint8_t* source, int length, uint32_t pixel_on, uint32_t pixel_off)
+{
+	int i;
+
+#if defined(G89_NEON)
+	static const uint8_t bits[8] = { 0x80, 0x40, 0x20, 0x10, 0x08, 0x04, 0x02, 0x01 };
+	uint8x8_t bitmask = vld1_u8(bits);
+	uint32x4_t on = vdupq_n_u32(pixel_on);
+	uint32x4_t off = vdupq_n_u32(pixel_off);
+
+	for (i = 0; i < length; ++i)
+	{
+		uint32x4_t lo, hi;
+		widen_mask(vtst_u8(vdup_n_u8(source[i]), bitmask), &lo, &hi);
+		vst1q_u32(target, vbslq_u32(lo, on, off));
+		vst1q_u32(target + 4, vbslq_u32(hi, on, off));
+		target += 8;
+	}
+#elif defined(G89_SSE2)
+	__m128i bitmask = _mm_set_epi8(0, 0, 0, 0, 0, 0, 0, 0, 0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, (char)0x80);
+	__m128i on = _mm_set1_epi32((int)pixel_on);
+	__m128i off = _mm_set1_epi32((int)pixel_off);
+
+	for (i = 0; i < length; ++i)
+	{
+		__m128i set = _mm_cmpeq_epi8(_mm_and_si128(_mm_set1_epi8((char)source[i]), bitmask), bitmask);
+		__m128i set16 = _mm_unpacklo_epi8(set, set);
+		_mm_storeu_si128((__m128i*)target, select_128(_mm_unpacklo_epi16(set16, set16), on, off));
+		_mm_storeu_si128((__m128i*)(target + 4), select_128(_mm_unpackhi_epi16(set16, set16), on, off));
+		target += 8;
+	}
+#else
+	int k;
+
+	for (i = 0; i < length; ++i)
+	{
+		uint8_t c = source[i];
+
+		for (k = 0; k < 8; ++k)
+		{
+			*target++ = c & (0x80 >> k) ? pixel_on : pixel_off;
+		}
+	}
+#endif
+}
+
+void g89_expand_8bpp(uint32_t* target, const uint8_t* source, int length, uint32_t pixel_on, uint32_t pixel_off)
+{
+	int i = 0;
+
+#if defined(G89_NEON)
+	uint32x4_t on = vdupq_n_u32(pixel_on);
+	uint32x4_t off = vdupq_n_u32(pixel_off);
+
+	for (; i + 8 <= length; i += 8)
+	{
+		uint32x4_t lo, hi;
+		uint8x8_t v = vld1_u8(source + i);
+		widen_mask(vtst_u8(v, v), &lo, &hi);
+		vst1q_u32(target + i, vbslq_u32(lo, on, off));
+		vst1q_u32(target + i + 4, vbslq_u32(hi, on, off));
+	}
+#elif defined(G89_SSE2)
+	__m128i on = _mm_set1_epi32((int)pixel_on);
+	__m128i off = _mm_set1_epi32((int)pixel_off);
+	__m128i zero = _mm_setzero_si128();
+
+	for (; i + 8 <= length; i += 8)
+	{
+		__m128i clear = _mm_cmpeq_epi8(_mm_loadl_epi64((const __m128i*)(source + i)), zero);
+		__m128i clear16 = _mm_unpacklo_epi8(clear, clear);
+		_mm_storeu_si128((__m128i*)(target + i), select_128(_mm_unpacklo_epi16(clear16, clear16), off, on));
+		_mm_storeu_si128((__m128i*)(target + i + 4), select_128(_mm_unpackhi_epi16(clear16, clear16), off, on));
+	}
+#endif
+
+	for (; i < length; ++i)
+	{
+		target[i] = source[i] ? pixel_on : pixel_off;
+	}
+}
+
+//no gather in NEON or SSE2, the lookup stays scalar
+void g89_expand_indexed(uint32_t* target, const uint8_t* source, int length, const uint32_t* palette, int zoom)
+{
+	int i, k;
+
+	if (zoom == 1)
+	{
+		for (i = 0; i < length; ++i)
+		{
+			target[i] = palette[source[i]];
+		}
+		return;
+	}
+
+	for (i = 0; i < length; ++i)
+	{
+		uint32_t p = palette[source[i]];
+
+		for (k = 0; k < zoom; ++k)
+		{
+			*target++ = p;
+		}
+	}
+}
+
+void g89_replicate_line(uint32_t* target, const uint32_t* source, int src_width, int zoom)
+{
+	int i = 0;
+
+	if (zoom == 1)
+	{
+		memcpy(target, source, src_width * sizeof(uint32_t));
+		return;
+	}
+
+#if defined(G89_NEON)
+	if (zoom == 2)
+	{
+		for (; i + 4 <= src_width; i += 4)
+		{
+			uint32x4_t v = vld1q_u32(source + i);
+			uint32x4x2_t z = vzipq_u32(v, v);
+			vst1q_u32(target + i * 2, z.val[0]);
+			vst1q_u32(target + i * 2 + 4, z.val[1]);
+		}
+	}
+	else
+	{
+		//whole vectors per pixel. The spill into the next pixel is overwritten
+		//by that pixel, so only the last one has to stay in bounds.
+		for (; i < src_width - 1; ++i)
+		{
+			uint32x4_t v = vdupq_n_u32(source[i]);
+			uint32_t* t = target + i * zoom;
+			int k;
+
+			for (k = 0; k < zoom; k += 4)
+			{
+				vst1q_u32(t + k, v);
+			}
+		}
+	}
+#elif defined(G89_SSE2)
+	if (zoom == 2)
+	{
+		for (; i + 4 <= src_width; i += 4)
+		{
+			__m128i v = _mm_loadu_si128((const __m128i*)(source + i));
+			_mm_storeu_si128((__m128i*)(target + i * 2), _mm_unpacklo_epi32(v, v));
+			_mm_storeu_si128((__m128i*)(target + i * 2 + 4), _mm_unpackhi_epi32(v, v));
+		}
+	}
+	else
+	{
+		for (; i < src_width - 1; ++i)
+		{
+			__m128i v = _mm_set1_epi32((int)source[i]);
+			uint32_t* t = target + i * zoom;
+			int k;
+
+			for (k = 0; k < zoom; k += 4)
+			{
+				_mm_storeu_si128((__m128i*)(t + k), v);
+			}
+		}
+	}
+#endif
+
+	for (; i < src_width; ++i)
+	{
+		uint32_t p = source[i];
+		uint32_t* t = target + i * zoom;
+		int k;
+
+		for (k = 0; k < zoom; ++k)
+		{
+			t[k] = p;
+		}
+	}
+}
+
+void g89_grid_map(uint32_t* target, const uint32_t* source, int length, uint32_t pixel_on, uint32_t on_color, uint32_t off_color)
+{
+	int i = 0;
+
+#if defined(G89_NEON)
+	uint32x4_t on = vdupq_n_u32(pixel_on);
+	uint32x4_t grid_on = vdupq_n_u32(on_color);
+	uint32x4_t grid_off = vdupq_n_u32(off_color);
+
+	for (; i + 4 <= length; i += 4)
+	{
+		uint32x4_t p = vld1q_u32(source + i);
+		vst1q_u32(target + i, vbslq_u32(vceqq_u32(p, on), grid_on, grid_off));
+	}
+#elif defined(G89_SSE2)
+	__m128i on = _mm_set1_epi32((int)pixel_on);
+	__m128i grid_on = _mm_set1_epi32((int)on_color);
+	__m128i grid_off = _mm_set1_epi32((int)off_color);
+
+	for (; i + 4 <= length; i += 4)
+	{
+		__m128i p = _mm_loadu_si128((const __m128i*)(source + i));
+		_mm_storeu_si128((__m128i*)(target + i), select_128(_mm_cmpeq_epi32(p, on), grid_on, grid_off));
+	}
+#endif
+
+	for (; i < length; ++i)
+	{
+		target[i] = source[i] == pixel_on ? on_color : off_color;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+#ifndef SCREEN_KERNELS_H
+#define SCREEN_KERNELS_H
+
+	#include <stdint.h>
+
+	//frame change detection over the raw LCD data, chained from hash
+	uint64_t g89_hash(uint64_t hash, const uint8_t* data, int length);
+
+	static inline int g89_hash_fold(uint64_t hash)
+	{
+		return (int)(uint32_t)(hash ^ (hash >> 32));
+	}
+
+	//1bpp, MSB first -> ARGB. length is in source bytes, writes length * 8 pixels
+	void g89_expand_1bpp(uint32_t* target, const uint8_t* source, int length, uint32_t pixel_on, uint32_t pixel_off);
+	//one byte per pixel, non zero is on -> ARGB
+	void g89_expand_8bpp(uint32_t* target, const uint8_t* source, int length, uint32_t pixel_on, uint32_t pixel_off);
+	//palette indices -> ARGB, every pixel repeated zoom times
+	void g89_expand_indexed(uint32_t* target, const uint8_t* source, int length, const uint32_t* palette, int zoom);
+	//repeats every source pixel zoom times
+	void g89_replicate_line(uint32_t* target, const uint32_t* source, int src_width, int zoom);
+	//pixel_on -> on_color, anything else -> off_color. target may be source
+	void g89_grid_map(uint32_t* target, const uint32_t* source, int length, uint32_t pixel_on, uint32_t on_color, uint32_t off_color);
+
+#endif
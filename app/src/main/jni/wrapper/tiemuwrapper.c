@@ -26,8 +26,15 @@
 
 
 #include <ti68k_def.h>
+#include <images.h>
+#include <state.h>
+#include <ti68k_err.h>
+#include <hw.h>
+#include <kbd.h>
+#include <gscales.h>
 #include <wrappercommon.h>
 #include <tiemuwrapper.h>
+#include <screenkernels.h>
 #include <androidlog.h>
 #include <string.h>
 
@@ -41,22 +48,68 @@ extern int ngc;
 static int raw_width = 0;
 static int raw_height = 0;
 static uint32_t* lcd_buffer_x1 = NULL;
-static uint32_t* lcd_buffer_tmp_x1 = NULL;
+static uint8_t* gray_levels = NULL;
 static uint32_t lcd_buffer_x1_length = 0;
 
 static uint32_t pixelOnColor;
 static uint32_t pixelOffColor;
 
+//hash of the raw LCD data that lcd_buffer_x1 was last built from
+static uint64_t screen_hash = 0;
+static bool screen_hash_valid = false;
+
+#define SCREEN_HASH_BLANK		0
+#define SCREEN_HASH_BW			1
+#define SCREEN_HASH_GRAYSCALE	2
+
 static int read_screen_blank();
 static int read_screen_BW();
 static int read_screen_grayscale();
-static void compute_convtable(void);
 static void compute_grayscale(void);
+static void bind_screen();
+static void release_screen();
+static void exit_engine();
 
 void tiemu_init()
 {
 	tiemu_clean();
+	bind_screen();
+}
+
+void tiemu_clean()
+{
+	release_screen();
+	exit_engine();
+}
+
+//The engine lives in globals, so there is only one context to park. It is
+//left untouched and the standby handle only marks it as taken.
+void* tiemu_suspend()
+{
+	release_screen();
+	lcd_buffer_x1 = NULL;
+	lcd_buffer_x1_length = 0;
+
+	return &tihw;
+}
+
+void tiemu_resume(void* context)
+{
+	bind_screen();
+}
+
+void tiemu_free_standby(void* context)
+{
+	exit_engine();
+}
+
+int tiemu_context_size()
+{
+	return tihw.rom_size + tihw.ram_size + tihw.io_size + tihw.io2_size + tihw.io3_size;
+}
 
+static void bind_screen()
+{
 	raw_width = graph89_emulator_params.display_buffer_not_zoomed.width;
 	raw_height = graph89_emulator_params.display_buffer_not_zoomed.height;
 	lcd_buffer_x1 = graph89_emulator_params.display_buffer_not_zoomed.buffer;
@@ -66,21 +119,26 @@ void tiemu_init()
 	pixelOffColor = graph89_emulator_params.skin_colors.pixel_off;
 
 	enable_grayscale = graph89_emulator_params.is_grayscale;
+	screen_hash_valid = false;
 
 	if (enable_grayscale)
 	{
-		compute_convtable();
 		compute_grayscale();
 
-		lcd_buffer_tmp_x1 = (uint32_t*)malloc(LCDMEM_W * LCDMEM_H * sizeof(uint32_t));
+		gray_levels = (uint8_t*)malloc(raw_width * raw_height);
 	}
 }
 
-void tiemu_clean()
+static void release_screen()
 {
-	free(lcd_buffer_tmp_x1);
-	lcd_buffer_tmp_x1 = NULL;
+	free(gray_levels);
+	gray_levels = NULL;
+	graph89_set_indexed_frame(NULL, NULL);
+	ti68k_linkport_drop_received();
+}
 
+static void exit_engine()
+{
 	ti68k_exit();
 
 	memset(&params, 0, sizeof(Ti68kParameters));
@@ -126,7 +184,14 @@ int tiemu_save_state(const char* state_file)
 {
 	if (tihw.ram)
 	{
-		return ti68k_state_save(state_file);
+		int ret;
+
+		graph89_remove_checksum(state_file);
+		ret = ti68k_state_save(state_file);
+
+		if (ret == 0) graph89_write_checksum(state_file);
+
+		return ret;
 	}
 	else
 	{
@@ -139,9 +204,122 @@ int tiemu_load_state(const char* state_file)
 	return ti68k_state_load(state_file);
 }
 
-int tiemu_upload_file(const char* file_name)
+//the checks ti68k_load_image and ti68k_state_load make, without loading anything
+int tiemu_check_instance(const char* image_file, const char* state_file)
+{
+	IMG_INFO img, state_img;
+	SAV_INFO sav;
+	long size;
+	FILE* f;
+
+	memset(&img, 0, sizeof(IMG_INFO));
+
+	int err = ti68k_get_img_infos(image_file, &img);
+	if (err) return err;
+
+	f = fopen(image_file, "rb");
+	if (!f) return ERR_CANT_OPEN;
+
+	fseek(f, 0, SEEK_END);
+	size = ftell(f);
+	fclose(f);
+
+	if (size < (long) img.header_size + img.size) return ERR_INVALID_ROM_SIZE;
+
+	if (state_file == NULL || state_file[0] == 0) return 0;
+
+	f = fopen(state_file, "rb");
+	if (!f) return ERR_CANT_OPEN_STATE;
+
+	memset(&sav, 0, sizeof(SAV_INFO));
+
+	if (fread(&state_img, 1, sizeof(IMG_INFO), f) != sizeof(IMG_INFO) || fread(&sav, 1, 2 * sizeof(long), f) != 2 * sizeof(long))
+	{
+		fclose(f);
+		return ERR_CANT_OPEN_STATE;
+	}
+
+	if (sav.size > (long) sizeof(SAV_INFO)) sav.size = sizeof(SAV_INFO);
+	fseek(f, sizeof(IMG_INFO), SEEK_SET);
+	fread(&sav, 1, sav.size, f);
+
+	fseek(f, 0, SEEK_END);
+	size = ftell(f);
+	fclose(f);
+
+	if (sav.revision < SAV_MINI) return ERR_REVISION_MATCH;
+	if (memcmp(&state_img, &img, sizeof(IMG_INFO) - sizeof(char *))) return ERR_HEADER_MATCH;
+	if (size < sav.rom_offset) return ERR_STATE_MATCH;
+
+	return 0;
+}
+
+//One link session for the whole list. fast_install creates the variables in memory
+//when it can, the link protocol does the rest. Returns the number of files that failed.
+int tiemu_upload_files(const char** files, int count, bool fast_install, const upload_listener_struct* listener)
+{
+	bool session = false;
+	int failed = 0;
+	int i;
+
+	graph89_transfer_begin();
+
+	for (i = 0; i < count && !graph89_transfer_cancelled(); ++i)
+	{
+		int ret = 0;
+
+		listener->sending(listener->context, i);
+
+		if (!fast_install || ti68k_linkport_inject_file(files[i]) != 0)
+		{
+			if (!session)
+			{
+				ret = ti68k_linkport_begin_send();
+				session = ret == 0;
+			}
+
+			if (session)
+			{
+				ret = ti68k_linkport_send_next(files[i]);
+			}
+
+			//a failed transfer resets the link, the next file checks the calc again
+			if (ret && session)
+			{
+				ti68k_linkport_end_send();
+				session = false;
+			}
+		}
+
+		listener->sent(listener->context, i, ret);
+
+		if (ret) ++failed;
+	}
+
+	if (session)
+	{
+		ti68k_linkport_end_send();
+	}
+
+	graph89_transfer_end();
+
+	return failed;
+}
+
+void tiemu_cancel_transfer()
 {
-	return ti68k_linkport_send_file(file_name);
+	ti68k_linkport_abort_send();
+}
+
+//writes the variable the calculator sent last, without going through a temporary file
+int tiemu_save_received_file(const char* file_name)
+{
+	return ti68k_linkport_save_received(file_name);
+}
+
+void tiemu_drop_received_file()
+{
+	ti68k_linkport_drop_received();
 }
 
 void tiemu_send_key(int key_code, int is_pressed)
@@ -162,9 +340,23 @@ void tiemu_send_keys(int* key_codes, int length)
 
 void tiemu_sync_clock()
 {
+	hw_rtc_sync();
 	sync_clock();
 }
 
+void tiemu_set_fixed_time(int64_t usec)
+{
+	if (usec)
+	{
+		hw_clock_reset(usec);
+		hw_kbd_init();
+	}
+	else
+	{
+		hw_rtc_sync();
+	}
+}
+
 void tiemu_turn_screen_ON()
 {
 	hw_m68k_irq(6);
@@ -172,8 +364,15 @@ void tiemu_turn_screen_ON()
 
 void tiemu_run_engine()
 {
-	int cpu_cycles = engine_num_cycles_per_loop() * graph89_emulator_params.speed_coefficient;
+	int cpu_cycles = engine_num_cycles_per_loop() * graph89_slice_coefficient();
+	uint32_t clock = hw_clock;
+
+	graph89_input_log_slice();
+
+	if (!graph89_emulator_params.is_deterministic) hw_rtc_sync();
 	hw_m68k_run(cpu_cycles / 4);
+
+	graph89_emulator_params.emulated_time += (int64_t)(uint32_t)(hw_clock - clock) * 1000000 / ((int64_t)cycle_instr << 14);
 }
 
 int tiemu_read_emulated_screen (uint8_t *return_flags)
@@ -264,10 +463,23 @@ void tiemu_set_tmp_dir(const char* tmp_dir)
 	strcpy(TMP_DIR, tmp_dir);
 }
 
-int tiemu_install_rom(const char* source, const char* destination, int calc_type, int is_rom)
+static void install_written(void* context, const void* data, int length, int total)
+{
+	image_writer_struct* writer = (image_writer_struct*) context;
+
+	writer->total = total;
+	graph89_image_write(writer, data, length);
+}
+
+int tiemu_install_rom(const char* source, const char* destination, int calc_type, int is_rom, const install_listener_struct* listener)
 {
+	image_writer_struct writer;
 	int code = 0, dummy = 0;
 
+	//the conversion writes the file, the writer only follows it
+	graph89_image_open(&writer, NULL, 0, listener);
+	ti68k_set_image_listener(install_written, &writer);
+
 	if (is_rom)
 	{
 		code = ti68k_convert_rom_to_image(source, destination, &dummy);
@@ -277,6 +489,13 @@ int tiemu_install_rom(const char* source, const char* destination, int calc_type
 		code = ti68k_convert_tib_to_image(source, destination, -1, &dummy);
 	}
 
+	ti68k_set_image_listener(NULL, NULL);
+
+	if (code == 0)
+	{
+		code = graph89_image_close(&writer, destination);
+	}
+
 	return code;
 }
 
@@ -286,9 +505,17 @@ static int read_screen_blank()
 {
 	int i;
 
-	for (i = 0; i < lcd_buffer_x1_length; ++i)
+	graph89_set_indexed_frame(NULL, NULL);
+
+	if (!screen_hash_valid || screen_hash != SCREEN_HASH_BLANK)
 	{
-		lcd_buffer_x1[i] = pixelOffColor;
+		for (i = 0; i < lcd_buffer_x1_length; ++i)
+		{
+			lcd_buffer_x1[i] = pixelOffColor;
+		}
+
+		screen_hash = SCREEN_HASH_BLANK;
+		screen_hash_valid = true;
 	}
 
 	return -1;
@@ -296,32 +523,32 @@ static int read_screen_blank()
 
 static int read_screen_BW()
 {
-	int crc = 0xFFFFFFFF;
-
-	int i, j, k;
-	uint8_t *lcd_bitmap = &tihw.ram[tihw.lcd_adr];
+	int j;
+	uint64_t hash = SCREEN_HASH_BW;
 
 	int widthdiv8 = ((int)raw_width) / 8;
 	int height = (int)raw_height;
 
-	int length = 0;
+	graph89_set_indexed_frame(NULL, NULL);
 
 	for (j = 0; j < height; ++j)
 	{
-		int l = j * LCDMEM_W / 8;
-		for (i = 0; i < widthdiv8; ++i)
-		{
-			uint8_t c = tihw.lcd_ptr[l + i];
-			crc = g89_crc_table[(crc ^ c) & 0xFF] ^ (crc >> 8);
+		hash = g89_hash(hash, (uint8_t *) &tihw.lcd_ptr[j * LCDMEM_W / 8], widthdiv8);
+	}
 
-			for (k = 0; k < 8; ++k)
-			{
-				lcd_buffer_x1[length++] = c & g89_shift_table[k] ? pixelOnColor : pixelOffColor;
-			}
+	// hash the raw bitmap first, unchanged frames are not expanded again
+	if (!screen_hash_valid || hash != screen_hash)
+	{
+		for (j = 0; j < height; ++j)
+		{
+			g89_expand_1bpp(&lcd_buffer_x1[j * raw_width], (uint8_t *) &tihw.lcd_ptr[j * LCDMEM_W / 8], widthdiv8, pixelOnColor, pixelOffColor);
 		}
+
+		screen_hash = hash;
+		screen_hash_valid = true;
 	}
 
-	return crc ^ 0xFFFFFFFF;
+	return g89_hash_fold(hash);
 }
 
 
@@ -331,8 +558,8 @@ static int read_screen_BW()
 
 extern volatile int lcd_flag;
 
-static uint32_t convtab[512];
 static RGB_struct grayscales[16];
+static uint32_t gray_palette[LCD_GRAY_LEVELS];	// levels of the gray frame as ARGB
 
 static int		lcd_state = -1;     // screen state
 
@@ -345,28 +572,11 @@ static int max_plane = 0;         	// number of grayscales to emulate
 static int shot_cnt = 0;					// number of captures
 static int skip_cnt = 0;					// number of frames to skip
 
-// gray plane sequences in relation with gscales.c
-static const int gp_seq[9][8] = {
-	{ -1 },						// unused
-	{ 0, -1 },					// b&w		(1 plane)
-	{ -1 },						// unused
-	{ 0, 0, 1, -1 },			// 4 colors (2 planes)
-	{ -1 },						// unused
-	{ -1 },						// unused
-	{ -1 },						// unused
-	{ 2, 0, 1, 0, 1, 0, -1 },	// 7 colors (3 planes)
-	{ 1, 0, 2, 0, 0, 1, 0, -1 },// 8 colors (3 planes)
-};
-
 static int read_screen_grayscale()
 {
-	int crc = 0xFFFFFFFF;
-
 	if(lcd_flag || (tihw.hw_type >= HW2))
 	{
-		int i, j, k, l;
-		uint8_t *lcd_bitmap = &tihw.ram[tihw.lcd_adr];
-		uint8_t *lcd_buf = (uint8_t *)lcd_buffer_tmp_x1;
+		int i, j, k;
 
 		if(!tihw.lcd_ptr)
 			goto exit;
@@ -406,62 +616,58 @@ static int read_screen_grayscale()
 		// Reset LCD changed flag.
 		lcd_changed = 0;
 
-		// Convert the bitmap screen to a bytemap screen and grayscalize
-		memset(lcd_buffer_tmp_x1, 0, LCDMEM_W * LCDMEM_H * sizeof(uint32_t));
+		// gscales.c integrates the planes while they switch. Without switching
+		// (ngc 1) the only plane is shown as it is.
+		const uint8_t *frame = ngc > 1 ? lcd_gray_frame : NULL;
+		uint64_t hash = SCREEN_HASH_GRAYSCALE ^ ((uint64_t)contrast << 8) ^ ((uint64_t)(frame != NULL) << 16);
 
-		for(l = 0; l < 8; l++)
+		// hash what the frame is built from, an unchanged one isn't built again
+		if (frame)
 		{
-			int pp = gp_seq[ngc][l];
-			if(pp == -1) break;
-
-			lcd_bitmap = lcd_planebufs[pp];
-
-			for(j = 0, k = 0; k < LCDMEM_H; k++)
-			{
-				for(i = 0; i < LCDMEM_W/8; i++, lcd_bitmap++)
-				{
-					lcd_buffer_tmp_x1[j++] += convtab[(*lcd_bitmap << 1)  ];
-					lcd_buffer_tmp_x1[j++] += convtab[(*lcd_bitmap << 1)+1];
-				}
-			}
+			hash = g89_hash(hash, frame, LCDMEM_W * raw_height);
+		}
+		else
+		{
+			hash = g89_hash(hash, lcd_planebufs[0], LCDMEM_W / 8 * raw_height);
 		}
 
-		int index = 0;
-		for (j = 0; j < raw_height; ++j)
+		if (screen_hash_valid && hash == screen_hash)
 		{
-			int scanline = j * LCDMEM_W;
+			goto exit;
+		}
 
-			for (i = 0; i < raw_width; ++i)
-			{
-				RGB_struct pxx = grayscales[lcd_buf[scanline + i]];
+		uint8_t *level = gray_levels;
 
-				uint32_t col = 0xFF << 24 | pxx.r << 16 | pxx.g << 8 | pxx.b;
+		for (k = 0; k < raw_height; ++k)
+		{
+			if (frame)
+			{
+				memcpy(level, frame + k * LCDMEM_W, raw_width);
+				level += raw_width;
+				continue;
+			}
 
-				crc = g89_crc_table[(crc ^ col) & 0xFF] ^ (crc >> 8);
+			const uint8_t *row = lcd_planebufs[0] + k * LCDMEM_W / 8;
 
-				lcd_buffer_x1[index++] = col;
+			for (i = 0; i < raw_width / 8; ++i)
+			{
+				for (j = 7; j >= 0; --j)
+				{
+					*level++ = (row[i] >> j) & 1 ? LCD_GRAY_LEVELS - 1 : 0;
+				}
 			}
 		}
+
+		// the levels stay indices, the palette is applied while scaling
+		graph89_set_indexed_frame(gray_levels, gray_palette);
+
+		screen_hash = hash;
+		screen_hash_valid = true;
 	}
 exit:
 	lcd_flag = 0;
 	if(tihw.hw_type >= HW2)	lcd_hook_hw2(TRUE);
-	return crc ^ 0xFFFFFFFF;
-}
-
-void compute_convtable(void)
-{
-  	int i, j;
-  	uint8_t k;
-  	uint8_t *tab = (uint8_t *)convtab;
-
-  	for(i=0, j=0; i<256; i++)
-    {
-      	for(k = 1<<7; k; k>>=1)
-		{
-			tab[j++] = (i & k) ? 1 : 0;
-		}
-    }
+	return g89_hash_fold(screen_hash);
 }
 
 void compute_grayscale(void)
@@ -516,6 +722,16 @@ void compute_grayscale(void)
 		}
     }
 
+	// Palette of the time-integrated levels, 0 is never on
+	for(i = 0; i < LCD_GRAY_LEVELS; i++)
+	{
+		r = (sr - (sr-er) * i / (LCD_GRAY_LEVELS-1)) >> 8;
+		g = (sg - (sg-eg) * i / (LCD_GRAY_LEVELS-1)) >> 8;
+		b = (sb - (sb-eb) * i / (LCD_GRAY_LEVELS-1)) >> 8;
+
+		gray_palette[i] = 0xFF << 24 | r << 16 | g << 8 | b;
+	}
+
 	// Compute grayscale palette
 	if(!max_plane)
 		return;
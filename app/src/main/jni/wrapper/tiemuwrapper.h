@@ -22,22 +22,31 @@
 
 	void tiemu_init();
 	void tiemu_clean();
+	void* tiemu_suspend();
+	void tiemu_resume(void* context);
+	void tiemu_free_standby(void* context);
+	int  tiemu_context_size();
 	void tiemu_step1_load_defaultconfig();
 	int  tiemu_step2_load_image(const char * image_path);
 	int  tiemu_step3_init();
 	int  tiemu_step4_reset();
 	int  tiemu_load_state(const char* state_file);
+	int  tiemu_check_instance(const char* image_file, const char* state_file);
 	int  tiemu_save_state(const char* state_file);
-	int  tiemu_upload_file(const char* file_name);
+	int  tiemu_upload_files(const char** files, int count, bool fast_install, const upload_listener_struct* listener);
+	void tiemu_cancel_transfer();
+	int  tiemu_save_received_file(const char* file_name);
+	void tiemu_drop_received_file();
 	void tiemu_send_key(int key_code, int is_pressed);
 	void tiemu_send_keys(int* key_codes, int length);
 	void tiemu_turn_screen_ON();
 	void tiemu_sync_clock();
+	void tiemu_set_fixed_time(int64_t usec);
 	void tiemu_patch(const char* num, const char* vernum);
 
 	void tiemu_run_engine();
 	int  tiemu_read_emulated_screen (uint8_t *return_flags);
 	void tiemu_set_tmp_dir(const char* tmp_dir);
-	int  tiemu_install_rom(const char* source, const char* destination, int calc_type, int is_rom);
+	int  tiemu_install_rom(const char* source, const char* destination, int calc_type, int is_rom, const install_listener_struct* listener);
 
 #endif
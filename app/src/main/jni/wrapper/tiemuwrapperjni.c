@@ -20,6 +20,7 @@
 
 #include <jni.h>
 #include <wrappercommon.h>
+#include <wrappercommonjni.h>
 #include <tiemuwrapper.h>
 #include <androidlog.h>
 
@@ -79,16 +80,32 @@ JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTiE
 	(*env)->ReleaseStringUTFChars(env, vernum, ver);
 }
 
-JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTiEmuUploadFile(JNIEnv * env, jobject obj, jstring str)
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTiEmuUploadFiles(JNIEnv * env, jobject obj, jobjectArray files, jboolean fast_install, jobject progress)
+{
+	java_upload_struct upload;
+	graph89_java_upload_begin(env, files, progress, &upload);
+	int code = tiemu_upload_files(upload.files, upload.count, fast_install, &upload.listener);
+	graph89_java_upload_end(&upload);
+
+	LOGI("TiEmu Upload Files %d", code);
+	return (jint)code;
+}
+
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTiEmuSaveReceivedFile(JNIEnv * env, jobject obj, jstring str)
 {
 	const char * filename = (*env)->GetStringUTFChars(env, str, 0);
-	int code = tiemu_upload_file(filename);
+	int code = tiemu_save_received_file(filename);
 	(*env)->ReleaseStringUTFChars(env, str, filename);
 
-	LOGI("TiEmu Upload File");
+	LOGI("TiEmu Save Received File %d", code);
 	return (jint)code;
 }
 
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTiEmuDropReceivedFile(JNIEnv * env, jobject obj)
+{
+	tiemu_drop_received_file();
+}
+
 JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTiEmuLoadState(JNIEnv * env, jobject obj, jstring str)
 {
 	const char * filename = (*env)->GetStringUTFChars(env, str, 0);
@@ -28,10 +28,12 @@
 #include <stdbool.h>
 #include <wrappercommon.h>
 #include <tilemwrapper.h>
+#include <screenkernels.h>
 #include <tilem.h>
 #include <graph89_interface.h>
 #include <ticalcs.h>
 #include <wabbit.h>
+#include <ti68k_err.h>
 
 TilemLCDBuffer* tilemlcdbuf = NULL;
 TilemGrayLCD *glcd = NULL;
@@ -46,8 +48,17 @@ static uint32_t* lcd_buffer_x1 = NULL;
 static uint32_t lcd_buffer_x1_length = 0;
 static bool is_grayscale = 0;
 static dword* palette = NULL;
-static dword cpalette[129];
+static uint32_t cpalette[129]; //ARGB for gray levels 0..128 at old_contrast
 static byte old_contrast = 0xFF;
+static int64_t fixed_time = 0;
+
+//hash of the raw LCD data that lcd_buffer_x1 was last built from
+static uint64_t screen_hash = 0;
+static bool screen_hash_valid = false;
+
+#define SCREEN_HASH_BLANK		0
+#define SCREEN_HASH_BW			1
+#define SCREEN_HASH_GRAYSCALE	2
 
 static bool is_busy();
 static void link_update_nop();
@@ -57,6 +68,18 @@ static void get_contrast_settings(unsigned int contrast, int *cbase, int *cfact)
 static char rom_file[512];
 static char sav_file[512];
 
+//a parked emulator and the per instance state that goes with it
+typedef struct
+{
+	TilemCalcEmulator* emu;
+	char rom_file[512];
+	int64_t fixed_time;
+}tilem_standby_struct;
+
+static void bind_screen();
+static void release_screen();
+static void free_emulator(TilemCalcEmulator* emulator);
+
 
 void tilem_init()
 {
@@ -68,6 +91,63 @@ void tilem_init()
 	tifiles_library_init();
 	ticalcs_library_init();
 
+	bind_screen();
+}
+
+void tilem_clean()
+{
+	release_screen();
+	free_emulator(emu);
+	emu = NULL;
+}
+
+void* tilem_suspend()
+{
+	tilem_standby_struct* standby = (tilem_standby_struct*) malloc(sizeof(tilem_standby_struct));
+
+	if (standby == NULL) return NULL;
+
+	release_screen();
+
+	standby->emu = emu;
+	strncpy(standby->rom_file, rom_file, sizeof(standby->rom_file));
+	standby->fixed_time = fixed_time;
+
+	emu = NULL;
+	return standby;
+}
+
+void tilem_resume(void* context)
+{
+	tilem_standby_struct* standby = (tilem_standby_struct*) context;
+
+	tilem_clean();
+
+	emu = standby->emu;
+	strncpy(rom_file, standby->rom_file, sizeof(rom_file));
+	fixed_time = standby->fixed_time;
+	free(standby);
+
+	bind_screen();
+}
+
+void tilem_free_standby(void* context)
+{
+	tilem_standby_struct* standby = (tilem_standby_struct*) context;
+
+	free_emulator(standby->emu);
+	free(standby);
+}
+
+int tilem_context_size()
+{
+	if (emu == NULL) return 0;
+
+	return sizeof(TilemCalcEmulator) + sizeof(TilemCalc) + emu->calc->hw.romsize + emu->calc->hw.ramsize + emu->calc->hw.lcdmemsize;
+}
+
+static void bind_screen()
+{
 	raw_width = graph89_emulator_params.display_buffer_not_zoomed.width;
 	raw_height = graph89_emulator_params.display_buffer_not_zoomed.height;
 	lcd_buffer_x1 = graph89_emulator_params.display_buffer_not_zoomed.buffer;
@@ -76,6 +156,8 @@ void tilem_init()
 	pixelOnColor = graph89_emulator_params.skin_colors.pixel_on;
 	pixelOffColor = graph89_emulator_params.skin_colors.pixel_off;
 
+	screen_hash_valid = false;
+
 	is_grayscale = graph89_emulator_params.is_grayscale;
 
 	if (is_grayscale)
@@ -85,23 +167,29 @@ void tilem_init()
 		palette = tilem_color_palette_new(pixelOffColor >> 16 & 0xFF, pixelOffColor >> 8 & 0xFF, pixelOffColor & 0xFF, pixelOnColor >> 16 & 0xFF, pixelOnColor >> 8 & 0xFF, pixelOnColor & 0xFF, 2.2);
 	}
 
+	old_contrast = 0xFF;
 	tilemlcdbuf = tilem_lcd_buffer_new();
 }
 
-void tilem_clean()
+static void release_screen()
 {
 	tilem_lcd_buffer_free(tilemlcdbuf);
 	tilemlcdbuf = NULL;
+	graph89_set_indexed_frame(NULL, NULL);
 	tilem_gray_lcd_free(glcd);
 	glcd = NULL;
 	free(palette);
 	palette = NULL;
-	if (emu != NULL)
+}
+
+static void free_emulator(TilemCalcEmulator* emulator)
+{
+	if (emulator != NULL)
 	{
-		tilem_calc_free(emu->calc);
-		g_queue_free(emu->task_queue);
-		free(emu->link_update);
-		emu = NULL;
+		tilem_calc_free(emulator->calc);
+		g_queue_free(emulator->task_queue);
+		free(emulator->link_update);
+		g_free(emulator);
 	}
 }
 
@@ -141,8 +229,26 @@ int tilem_reset()
 
 void tilem_run_engine()
 {
+	dword clock = emu->calc->z80.clock;
+	int64_t elapsed;
+
+	graph89_input_log_slice();
+
+	//a cancel that came in as the last transfer ended must not abort the next one
+	emu->task_abort = FALSE;
+	emu->link_update->cancel = FALSE;
+
 	emu->calc->flash.unlock = TRUE;
-	tilem_z80_run(emu->calc, 700000 * graph89_emulator_params.speed_coefficient, NULL);
+	tilem_z80_run(emu->calc, 700000 * graph89_slice_coefficient(), NULL);
+
+	elapsed = (int64_t)(dword)(emu->calc->z80.clock - clock) * 1000 / emu->calc->z80.clockspeed;
+	graph89_emulator_params.emulated_time += elapsed;
+
+	if (graph89_emulator_params.is_deterministic)
+	{
+		fixed_time += elapsed;
+		emu->calc->fixedtime = (time_t)(fixed_time / 1000000);
+	}
 }
 
 void tilem_sync_clock()
@@ -150,6 +256,14 @@ void tilem_sync_clock()
 	sync_clock_tilem(emu);
 }
 
+void tilem_set_fixed_time(int64_t usec)
+{
+	fixed_time = usec;
+	emu->calc->fixedtime = (time_t)(usec / 1000000);
+
+	if (usec) tilem_keypad_reset(emu->calc);
+}
+
 extern byte ti84pse_boot_image_1[];
 extern byte ti84p_boot_image_1[];
 extern int boot_image_84_size;
@@ -162,98 +276,228 @@ extern int boot_image_83_size;
 extern byte boot_image_2[];
 extern int boot_image_2_start;
 extern int boot_image_2_size;
-extern LINK_ERR forceload_os(TilemCalc* calc, TIFILE_t *tifile);
+extern u_int os_flash_page(int flash_pages, u_int index);
 
-int tilem_install_rom(const char* source, const char* destination, int calc_type, int is_rom)
+static const TilemHardware* tilem_hardware(int calc_type)
 {
-	if(is_rom)
+	const TilemHardware** models;
+	int nmodels, i;
+	char id;
+
+	switch(calc_type)
 	{
-		uint8_t buf[8192];
-		size_t size;
+		case CALC_TYPE_TI84PLUS_SE:
+			id = TILEM_CALC_TI84P_SE;
+			break;
+		case CALC_TYPE_TI84PLUS:
+			id = TILEM_CALC_TI84P;
+			break;
+		case CALC_TYPE_TI83PLUS_SE:
+			id = TILEM_CALC_TI83P_SE;
+			break;
+		case CALC_TYPE_TI83PLUS:
+			id = TILEM_CALC_TI83P;
+			break;
+		case CALC_TYPE_TI83:
+			id = TILEM_CALC_TI83;
+			break;
+		default:
+			return NULL;
+	}
 
-		FILE* src = fopen(source, "rb");
-		FILE* dest = fopen(destination, "wb");
+	tilem_get_supported_hardware(&models, &nmodels);
 
-		if (!src || !dest)
-		{
-			return -1;
-		}
+	for (i = 0; i < nmodels; ++i)
+	{
+		if (models[i]->model_id == id) return models[i];
+	}
 
-		while ((size = fread(buf, 1, 8192, src)) > 0)
-		{
-			fwrite(buf, 1, size, dest);
-		}
+	return NULL;
+}
+
+static int install_rom_dump(const char* source, const char* destination, const install_listener_struct* listener)
+{
+	uint8_t buf[65536];
+	image_writer_struct writer;
+	size_t size;
+	long total;
+	int error = 0;
 
+	FILE* src = fopen(source, "rb");
+	if (!src) return -1;
+
+	fseek(src, 0, SEEK_END);
+	total = ftell(src);
+	fseek(src, 0, SEEK_SET);
+
+	if (graph89_image_open(&writer, destination, (int) total, listener))
+	{
 		fclose(src);
-		fclose(dest);
+		return -1;
 	}
-	else
+
+	while (!error && (size = fread(buf, 1, sizeof(buf), src)) > 0)
+	{
+		error = graph89_image_write(&writer, buf, (int) size);
+	}
+
+	fclose(src);
+
+	if (error)
+	{
+		fclose(writer.file);
+		return -4;
+	}
+
+	return graph89_image_close(&writer, destination);
+}
+
+/*
+	The image of an upgrade is built one flash page at a time, in the same way
+	forceload_os would lay it out in the memory of a blank calculator: 0xFF
+	everywhere, the boot code on the last page, the OS pages on top and the
+	certificate erased.
+*/
+static int install_os_upgrade(const char* source, const char* destination, int calc_type, const install_listener_struct* listener)
+{
+	u_char page_buf[PAGE_SIZE_W];
+	int source_page[256];
+	image_writer_struct writer;
+	const byte* boot_image;
+	int boot_image_size;
+	int flash_pages;
+	u_int i, page;
+	int error = 0;
+
+	const TilemHardware* hw = tilem_hardware(calc_type);
+	if (hw == NULL) return -1;
+
+	switch(calc_type)
+	{
+		case CALC_TYPE_TI84PLUS_SE:
+			boot_image = ti84pse_boot_image_1;
+			boot_image_size = boot_image_84_size;
+			break;
+		case CALC_TYPE_TI84PLUS:
+			boot_image = ti84p_boot_image_1;
+			boot_image_size = boot_image_84_size;
+			break;
+		case CALC_TYPE_TI83PLUS_SE:
+			boot_image = ti83pse_boot_image_1;
+			boot_image_size = boot_image_83_size;
+			break;
+		case CALC_TYPE_TI83PLUS:
+			boot_image = ti83p_boot_image_1;
+			boot_image_size = boot_image_83_size;
+			break;
+		default:
+			return -1;
+	}
+
+	flash_pages = hw->romsize / PAGE_SIZE_W;
+
+	TIFILE_t *tifile = importvar(source, FALSE);
+
+	if (tifile == NULL || tifile->type != FLASH_TYPE || tifile->flash == NULL)
+	{
+		if (tifile) FreeTiFile(tifile);
+		return -2;
+	}
+
+	for (page = 0; page < 256; ++page)
+	{
+		source_page[page] = -1;
+	}
+
+	for (i = 0; i < ARRAYSIZE(tifile->flash->data); ++i)
 	{
-		tilem_clean();
-		graph89_emulator_params.calc_type = calc_type;
-		emu = tilem_calc_emulator_new();
-		ticables_library_init();
-		tifiles_library_init();
-		ticalcs_library_init();
-
-		memset(emu->calc->mem, 0xFF, emu->calc->hw.romsize);
-		switch(graph89_emulator_params.calc_type)
+		if (tifile->flash->data[i] == NULL) continue;
+
+		page = os_flash_page(flash_pages, i);
+		if (page >= (u_int) flash_pages)
 		{
-			case CALC_TYPE_TI84PLUS_SE:
-				memcpy(emu->calc->mem + emu->calc->hw.romsize - 0x4000, ti84pse_boot_image_1, boot_image_84_size);
-				break;
-			case CALC_TYPE_TI84PLUS:
-				memcpy(emu->calc->mem + emu->calc->hw.romsize - 0x4000, ti84p_boot_image_1, boot_image_84_size);
-				break;
-			case CALC_TYPE_TI83PLUS_SE:
-				memcpy(emu->calc->mem + emu->calc->hw.romsize - 0x4000, ti83pse_boot_image_1, boot_image_83_size);
-				break;
-			case CALC_TYPE_TI83PLUS:
-				memcpy(emu->calc->mem + emu->calc->hw.romsize - 0x4000, ti83p_boot_image_1, boot_image_83_size);
-				break;
-			default:
-				return -1;
+			FreeTiFile(tifile);
+			return -3;
 		}
 
-		memcpy(emu->calc->mem + emu->calc->hw.romsize - 0x4000 + boot_image_2_start, boot_image_2, boot_image_2_size);
+		source_page[page] = i;
+	}
 
-		TIFILE_t *tifile = importvar(source, FALSE);
+	if (graph89_image_open(&writer, destination, hw->romsize, listener))
+	{
+		FreeTiFile(tifile);
+		return -4;
+	}
 
-		if (tifile == NULL || tifile->type != FLASH_TYPE) return -2;
-		LINK_ERR err = forceload_os(emu->calc, tifile);
+	for (page = 0; page < (u_int) flash_pages && !error; ++page)
+	{
+		memset(page_buf, 0xFF, PAGE_SIZE_W);
 
-		if (err != LERR_SUCCESS) return -3;
+		if (page == flash_pages - 1)
+		{
+			memcpy(page_buf, boot_image, boot_image_size);
+			memcpy(page_buf + boot_image_2_start, boot_image_2, boot_image_2_size);
+		}
 
-		calc_erase_certificate(emu->calc->mem, emu->calc->hw.romsize);
+		if (source_page[page] >= 0)
+		{
+			memcpy(page_buf, tifile->flash->data[source_page[page]], PAGE_SIZE_W);
+		}
 
-		FILE* dest = fopen(destination, "wb");
-		if (!dest)
+		//valid OS
+		if (page == 0)
 		{
-			return -4;
+			page_buf[0x56] = 0x5A;
+			page_buf[0x57] = 0xA5;
 		}
-		fwrite(emu->calc->mem, 1, emu->calc->hw.romsize, dest);
-		fclose(dest);
-		tilem_clean();
+
+		//the certificate is the page before the boot code, which is all calc_erase_certificate looks at
+		if (page == flash_pages - 2)
+		{
+			calc_erase_certificate(page_buf, PAGE_SIZE_W * 2);
+		}
+
+		error = graph89_image_write(&writer, page_buf, PAGE_SIZE_W);
 	}
 
-	return 0;
+	FreeTiFile(tifile);
+
+	if (error)
+	{
+		fclose(writer.file);
+		return -4;
+	}
+
+	return graph89_image_close(&writer, destination);
+}
+
+int tilem_install_rom(const char* source, const char* destination, int calc_type, int is_rom, const install_listener_struct* listener)
+{
+	if(is_rom)
+	{
+		return install_rom_dump(source, destination, listener);
+	}
+
+	return install_os_upgrade(source, destination, calc_type, listener);
 }
 
 int tilem_read_emulated_screen (uint8_t *return_flags)
 {
-	int i, j, v;
-	uint32_t crc = 0xFFFFFFFF;
+	int i, v;
+	uint64_t hash;
 	int cbase, cfact;
 
 	if (!emu->calc->lcd.active)
 	{
-		int len = emu->calc->hw.lcdwidth * emu->calc->hw.lcdheight;
-		int length = 0;
-		for (i = 0; i < len; ++i)
-		{
-			crc = g89_crc_table[(crc ^ 0x00) & 0xFF] ^ (crc >> 8);
+		hash = SCREEN_HASH_BLANK;
+		graph89_set_indexed_frame(NULL, NULL);
 
-			lcd_buffer_x1[length++] = pixelOffColor;
+		if (!screen_hash_valid || hash != screen_hash)
+		{
+			for (i = 0; i < lcd_buffer_x1_length; ++i)
+			{
+				lcd_buffer_x1[i] = pixelOffColor;
+			}
 		}
 	}
 	else
@@ -270,7 +514,7 @@ int tilem_read_emulated_screen (uint8_t *return_flags)
 				for (i = 0; i <= 128; i++)
 				{
 					v = ((i * cfact) >> 7) + cbase;
-					cpalette[i] = palette[v];
+					cpalette[i] = 0xFF000000 | palette[v];
 				}
 			}
 
@@ -282,37 +526,32 @@ int tilem_read_emulated_screen (uint8_t *return_flags)
 
 		int len = emu->calc->hw.lcdwidth * emu->calc->hw.lcdheight;
 
-		int length = 0;
-
+		// hash the raw frame first, unchanged frames are not converted again
 		if (is_grayscale)
 		{
-			for (i = 0; i < len; ++i)
-			{
-				byte b =  tilemlcdbuf->data[i];
-
-				crc = g89_crc_table[(crc ^ b) & 0xFF] ^ (crc >> 8);
-
-				lcd_buffer_x1[length++] = 0xFF000000 | cpalette[b];
-			}
+			// the gray levels stay indices, cpalette is applied while scaling
+			hash = g89_hash(SCREEN_HASH_GRAYSCALE ^ ((uint64_t)old_contrast << 8), tilemlcdbuf->data, len);
+			graph89_set_indexed_frame(tilemlcdbuf->data, cpalette);
 		}
 		else
 		{
-			for (i = 0; i < len; ++i)
-			{
-				byte b =  tilemlcdbuf->data[i];
+			hash = g89_hash(SCREEN_HASH_BW, tilemlcdbuf->data, len);
+			graph89_set_indexed_frame(NULL, NULL);
 
-				crc = g89_crc_table[(crc ^ b) & 0xFF] ^ (crc >> 8);
-
-				lcd_buffer_x1[length++] = b == 0 ? pixelOffColor : pixelOnColor;
+			if (!screen_hash_valid || hash != screen_hash)
+			{
+				g89_expand_8bpp(lcd_buffer_x1, tilemlcdbuf->data, len, pixelOnColor, pixelOffColor);
 			}
 		}
 	}
 
+	screen_hash = hash;
+	screen_hash_valid = true;
+
 	return_flags[0] = !emu->calc->lcd.active;
 	return_flags[1] = is_busy();
 
-	crc ^= 0xFFFFFFFF;
-	return crc;
+	return g89_hash_fold(hash);
 }
 
 void tilem_turn_screen_ON()
@@ -332,7 +571,59 @@ int tilem_load_state(const char* state_file)
 int tilem_save_state(const char* rom_file, const char* state_file)
 {
 	strncpy(sav_file, state_file, sizeof(sav_file) - 1);
-	return tilem_calc_save_state(emu->calc, rom_file, state_file);
+	graph89_remove_checksum(state_file);
+	int ret = tilem_calc_save_state(emu->calc, rom_file, state_file);
+
+	if (ret == 0) graph89_write_checksum(state_file);
+
+	return ret;
+}
+
+//the image has to hold the whole ROM, the state has to be a Tilem II state of the same model
+int tilem_check_instance(int calc_type, const char* image_file, const char* state_file)
+{
+	const TilemHardware* hw = tilem_hardware(calc_type);
+	char line[64];
+	char model[64];
+	long size;
+	FILE* f;
+
+	if (hw == NULL) return -1;
+
+	f = fopen(image_file, "rb");
+	if (!f) return ERR_CANT_OPEN;
+
+	fseek(f, 0, SEEK_END);
+	size = ftell(f);
+	fclose(f);
+
+	if (size < (long) hw->romsize) return ERR_INVALID_ROM_SIZE;
+
+	if (state_file == NULL || state_file[0] == 0) return 0;
+
+	f = fopen(state_file, "rb");
+	if (!f) return ERR_CANT_OPEN_STATE;
+
+	//first byte of old save files is always zero, those have no model to compare
+	if (fgetc(f) == 0)
+	{
+		fclose(f);
+		return 0;
+	}
+
+	rewind(f);
+	model[0] = 0;
+
+	while (fgets(line, sizeof(line), f))
+	{
+		if (sscanf(line, "MODEL = %63s", model) == 1) break;
+	}
+
+	fclose(f);
+
+	if (strcmp(model, hw->name) != 0) return ERR_STATE_MATCH;
+
+	return 0;
 }
 
 void tilem_send_key(int key_code, int is_pressed)
@@ -359,47 +650,120 @@ void tilem_send_keys(int* key_codes, int length)
 }
 
 extern LINK_ERR WabbitSendFile(TilemCalc *calc, const char* filename);
-extern LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile);
-int tilem_send_file(const char* filename)
+extern LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile, flash_journal_t *journal);
+extern void flash_journal_init(flash_journal_t *journal);
+extern void flash_journal_free(flash_journal_t *journal);
+extern void flash_journal_rollback(flash_journal_t *journal, TilemCalc* calc);
+extern int flash_journal_write(flash_journal_t *journal, TilemCalc* calc, const char *rom_file);
+//first and last delimit one link session, the calc is put in receive mode once
+static int tilem_send_file(const char* filename, bool first, bool last)
 {
-	SEND_FLAG destination = SEND_CUR;
+	//a force load can't be stopped once started, a cancel has to be seen before it
+	if (graph89_transfer_cancelled()) return -10;
+
+	//the header is enough to tell an app, only apps get fully parsed (and cached)
+	TIFILE_t *header = importvar(filename, TRUE);
+	bool is_app = header != NULL && header->type == FLASH_TYPE && header->flash->type == FLASH_TYPE_APP;
+	FreeTiFile(header);
 
-	TIFILE_t *var = importvar(filename, destination);
+	TIFILE_t *var = NULL;
 
 	if ((graph89_emulator_params.calc_type == CALC_TYPE_TI84PLUS_SE || graph89_emulator_params.calc_type == CALC_TYPE_TI84PLUS || graph89_emulator_params.calc_type == CALC_TYPE_TI83PLUS_SE)
-			&&  var->type == FLASH_TYPE && var->flash->type == FLASH_TYPE_APP)
+			&& is_app && (var = importvar_cached(filename)) != NULL)
 	{
-		int msize = (emu->calc->hw.romsize + emu->calc->hw.ramsize + emu->calc->hw.lcdmemsize);
+		//only the flash pages the app lands on are saved, and written back to the image
+		flash_journal_t journal;
+		flash_journal_init(&journal);
 
-		char* membackup = (char*) malloc(msize);
-		memcpy(membackup, emu->calc->mem, msize);
-
-		int ret = forceload_app(emu->calc, var);
+		int ret = forceload_app(emu->calc, var, &journal);
 
 		if (ret == LERR_SUCCESS)
 		{
-			free (membackup);
-			membackup = NULL;
-
-			FILE* dest = fopen(rom_file, "wb");
-			if (!dest)
-			{
-				return -4;
-			}
-			fwrite(emu->calc->mem, 1, emu->calc->hw.romsize, dest);
-			fclose(dest);
+			ret = flash_journal_write(&journal, emu->calc, rom_file);
+			flash_journal_free(&journal);
 
-			return 0;
-		}
-		else
-		{
-			memcpy(emu->calc->mem, membackup, msize);
-			free(membackup);
-			membackup = NULL;
+			return ret;
 		}
+
+		flash_journal_rollback(&journal, emu->calc);
+		flash_journal_free(&journal);
+	}
+
+	return tilem_link_send_file(emu, filename, -1, first, last) != 0 ? -10 : 0;
+}
+
+//only variables go over the link within one session, apps, backups and flash files prepare the calc on their own
+static bool is_session_file(const char* filename)
+{
+	switch (tifiles_file_get_class(filename))
+	{
+		case TIFILE_SINGLE:
+		case TIFILE_GROUP:
+		case TIFILE_REGULAR:
+			return true;
+		default:
+			return false;
+	}
+}
+
+//Returns the number of files that failed
+int tilem_upload_files(const char** files, int count, const upload_listener_struct* listener)
+{
+	int* order = (int*) malloc(count * sizeof(int));
+	if (order == NULL) return count;
+
+	bool session_open = false;
+	int session_start = 0;
+	int failed = 0;
+	int i, n;
+
+	//the other files go first, so the variables form one session that ends on the last file of the list
+	for (i = 0; i < count; ++i)
+	{
+		if (!is_session_file(files[i])) order[session_start++] = i;
 	}
 
-	return tilem_link_send_file(emu, filename, -1, TRUE, TRUE) != 0 ? -10 : 0;
+	for (i = 0, n = session_start; i < count; ++i)
+	{
+		if (n < count && is_session_file(files[i])) order[n++] = i;
+	}
+
+	graph89_transfer_begin();
+
+	for (n = 0; n < count && !graph89_transfer_cancelled(); ++n)
+	{
+		i = order[n];
+		bool in_session = n >= session_start;
+
+		listener->sending(listener->context, i);
+
+		int ret = tilem_send_file(files[i], in_session && !session_open, in_session && n == count - 1);
+
+		listener->sent(listener->context, i, ret);
+
+		//the session is over on an error, the next variable prepares the calc again
+		if (in_session) session_open = ret == 0 && n != count - 1;
+		if (ret) ++failed;
+	}
+
+	graph89_transfer_end();
+
+	free(order);
+
+	//any later link operation would stop at once while these are set
+	emu->task_abort = FALSE;
+	emu->link_update->cancel = FALSE;
+
+	//cancelled in the middle of the variables, the calc still waits for the end of transmission
+	if (session_open) tilem_link_end_send(emu);
+
+	return failed;
+}
+
+void tilem_cancel_transfer()
+{
+	emu->task_abort = TRUE;
+	emu->link_update->cancel = TRUE;
 }
 
 ///////////////////////////////////////////////////////////////////////////////////////////////////
@@ -23,9 +23,14 @@
 
 	void tilem_init();
 	void tilem_clean();
+	void* tilem_suspend();
+	void tilem_resume(void* context);
+	void tilem_free_standby(void* context);
+	int  tilem_context_size();
 	int  tilem_read_emulated_screen (uint8_t *return_flags);
-	int  tilem_install_rom(const char* source, const char* destination, int calc_type, int is_rom);
+	int  tilem_install_rom(const char* source, const char* destination, int calc_type, int is_rom, const install_listener_struct* listener);
 	int  tilem_load_image(const char * image_path);
+	int  tilem_check_instance(int calc_type, const char* image_file, const char* state_file);
 	int  tilem_reset();
 	void tilem_run_engine();
 	void tilem_turn_screen_ON();
@@ -36,8 +41,10 @@
 	void tilem_send_key(int key_code, int is_pressed);
 	void tilem_send_keys(int* key_codes, int length);
 
-	int tilem_send_file(const char* filename);
+	int tilem_upload_files(const char** files, int count, const upload_listener_struct* listener);
+	void tilem_cancel_transfer();
 	void tilem_sync_clock();
+	void tilem_set_fixed_time(int64_t usec);
 
 #endif
 
@@ -20,6 +20,8 @@
 #include <jni.h>
 #include <stdio.h>
 #include <tilem.h>
+#include <wrappercommonjni.h>
+#include <tilemwrapper.h>
 #include <androidlog.h>
 
 
@@ -79,13 +81,14 @@ JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTil
 	return ret;
 }
 
-JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTilemUploadFile(JNIEnv * env, jobject obj, jstring str)
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeTilemUploadFiles(JNIEnv * env, jobject obj, jobjectArray files, jobject progress)
 {
-	const char * filename = (*env)->GetStringUTFChars(env, str, 0);
-	int code = tilem_send_file(filename);
-	(*env)->ReleaseStringUTFChars(env, str, filename);
+	java_upload_struct upload;
+	graph89_java_upload_begin(env, files, progress, &upload);
+	int code = tilem_upload_files(upload.files, upload.count, &upload.listener);
+	graph89_java_upload_end(&upload);
 
-	LOGI("Tilem Upload File");
+	LOGI("Tilem Upload Files %d", code);
 	return (jint)code;
 }
 
@@ -234,6 +234,20 @@ typedef struct applist {
 	apphdr_t apps[96];
 } applist_t;
 
+/*flash pages a force load changes, saved before their first write so the
+ *load can be undone and only these pages written back to the image*/
+#define FLASH_JOURNAL_PAGES 256
+typedef struct flash_journal {
+	u_int count;
+	u_int pages[FLASH_JOURNAL_PAGES];
+	u_char *saved[FLASH_JOURNAL_PAGES];
+	BOOL complete;				/* FALSE if a page could not be saved */
+	int hwreg_index;			/* port23 before the load, -1 if untouched */
+	unsigned int hwreg_value;
+} flash_journal_t;
+
 
 TIFILE_t* importvar(const char * filePath, BOOL only_check_header);
+TIFILE_t* importvar_cached(const char *filePath);
+TIFILE_t* FreeTiFile(TIFILE_t * tifile);
 void calc_erase_certificate(unsigned char *mem, int size);
@@ -148,7 +148,88 @@ int get_page_size(u_char (*dest)[PAGE_SIZE_W], unsigned int page) {
 	return dest[page][i];
 }
 
-LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile) {
+void flash_journal_init(flash_journal_t *journal) {
+	memset(journal, 0, sizeof(flash_journal_t));
+	journal->complete = TRUE;
+	journal->hwreg_index = -1;
+}
+
+void flash_journal_free(flash_journal_t *journal) {
+	u_int i;
+	for (i = 0; i < journal->count; i++)
+		free(journal->saved[i]);
+	journal->count = 0;
+}
+
+/* Saves the pages [first, first + count) the first time they are about to change */
+static void journal_pages(flash_journal_t *journal, TilemCalc* calc, u_int first, u_int count) {
+	u_int page, i;
+
+	if (journal == NULL)
+		return;
+
+	for (page = first; page < first + count && page < FLASH_PAGES(calc); page++) {
+		for (i = 0; i < journal->count; i++)
+			if (journal->pages[i] == page)
+				break;
+		if (i < journal->count)
+			continue;
+
+		u_char *saved = journal->count < FLASH_JOURNAL_PAGES ? malloc(PAGE_SIZE_W) : NULL;
+		if (saved == NULL) {
+			journal->complete = FALSE;
+			continue;
+		}
+		memcpy(saved, calc->mem + page * PAGE_SIZE_W, PAGE_SIZE_W);
+		journal->pages[journal->count] = page;
+		journal->saved[journal->count] = saved;
+		journal->count++;
+	}
+}
+
+static void journal_hwreg(flash_journal_t *journal, TilemCalc* calc, int index) {
+	if (journal == NULL || journal->hwreg_index >= 0)
+		return;
+	journal->hwreg_index = index;
+	journal->hwreg_value = calc->hwregs[index];
+}
+
+/* Puts back every page and register the load changed */
+void flash_journal_rollback(flash_journal_t *journal, TilemCalc* calc) {
+	u_int i;
+	for (i = 0; i < journal->count; i++)
+		memcpy(calc->mem + journal->pages[i] * PAGE_SIZE_W, journal->saved[i], PAGE_SIZE_W);
+	if (journal->hwreg_index >= 0)
+		calc->hwregs[journal->hwreg_index] = journal->hwreg_value;
+}
+
+/* Writes the changed pages to the ROM image, or all of it if the journal is
+ * incomplete or the image can't be updated in place */
+int flash_journal_write(flash_journal_t *journal, TilemCalc* calc, const char *rom_file) {
+	FILE *dest = journal->complete ? fopen(rom_file, "r+b") : NULL;
+	u_int i;
+
+	if (dest != NULL) {
+		for (i = 0; i < journal->count; i++) {
+			if (fseek(dest, journal->pages[i] * PAGE_SIZE_W, SEEK_SET)
+					|| fwrite(calc->mem + journal->pages[i] * PAGE_SIZE_W, 1, PAGE_SIZE_W, dest) != PAGE_SIZE_W)
+				break;
+		}
+		fclose(dest);
+		if (i == journal->count)
+			return 0;
+	}
+
+	dest = fopen(rom_file, "wb");
+	if (!dest)
+		return -4;
+	fwrite(calc->mem, 1, calc->hw.romsize, dest);
+	fclose(dest);
+	return 0;
+}
+
+/* journal may be NULL */
+LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile, flash_journal_t *journal) {
 	u_char (*dest)[PAGE_SIZE_W] = (u_char (*)[PAGE_SIZE_W]) calc->mem;
 	if (dest == NULL)
 		return LERR_MODEL;
@@ -198,6 +279,7 @@ LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile) {
 					if (pageDiff > 0) {
 						if (end_page - pageDiff < upages.end)
 							return LERR_MEM;
+						journal_pages(journal, calc, currentPage - pageDiff, end_page - currentPage);
 						memmove(dest[currentPage - pageDiff], dest[currentPage],
 								PAGE_SIZE_W * (end_page - currentPage));
 						/*	if (cpu->pio.model == TI_83P) {
@@ -208,6 +290,7 @@ LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile) {
 						 }*/
 					} else {
 						//0xFF all extra pages
+						journal_pages(journal, calc, currentPage + pageDiff + 1, -pageDiff);
 						for (i = tifile->flash->pages;
 								i < tifile->flash->pages - pageDiff;
 								i++, currentPage--) {
@@ -224,11 +307,14 @@ LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile) {
 				}
 				//fix page execution permissions
 
-				if (upper_flash_index >= 0)
+				if (upper_flash_index >= 0) {
+					journal_hwreg(journal, calc, upper_flash_index);
 					calc->hwregs[upper_flash_index] -= pageDiff;
+				}
 				//cpu->mem_c->flash_upper -= pageDiff;
 			}
 			u_int i;
+			journal_pages(journal, calc, page + 1 - tifile->flash->pages, tifile->flash->pages);
 			for (i = 0; i < tifile->flash->pages; i++, page--) {
 				memcpy(dest[page], tifile->flash->data[i], PAGE_SIZE_W);
 			}
@@ -236,6 +322,7 @@ LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile) {
 			//the new order of apps has the correct parts marked
 			applist_t applist;
 			state_build_applist(calc, &applist);
+			journal_pages(journal, calc, FLASH_PAGES(calc) - 2, 1);
 			for (i = 0; i < applist.count; i++) {
 				fix_certificate(calc, applist.apps[i].page);
 			}
@@ -250,22 +337,27 @@ LINK_ERR forceload_app(TilemCalc* calc, TIFILE_t *tifile) {
 	if (page - tifile->flash->pages < upages.end)
 		return LERR_MEM;
 
+	//u_char *space = &dest[page][PAGE_SIZE - 1];
+	// Make sure the subsequent pages are empty, before anything is written
+	if (!check_flashpage_empty(dest, page, tifile->flash->pages))
+		return LERR_MEM;
+
 	//mark the app as non trial
+	journal_pages(journal, calc, FLASH_PAGES(calc) - 2, 1);
 	fix_certificate(calc, page);
 	//force reset the app list says BrandonW. seems to work, apps show up (sometimes)
 	//mem_write(calc->mem, 0x9C87, 0x00);
 	(*calc->hw.z80_wrmem)(calc, 0x9C87, 0x00);
 
-	//u_char *space = &dest[page][PAGE_SIZE - 1];
-	// Make sure the subsequent pages are empty
-	if (!check_flashpage_empty(dest, page, tifile->flash->pages))
-		return LERR_MEM;
+	journal_pages(journal, calc, page + 1 - tifile->flash->pages, tifile->flash->pages);
 	for (i = 0; i < tifile->flash->pages; i++, page--) {
 		memcpy(dest[page], tifile->flash->data[i], PAGE_SIZE_W);
 	}
 
-	if (upper_flash_index >= 0)
+	if (upper_flash_index >= 0) {
+		journal_hwreg(journal, calc, upper_flash_index);
 		calc->hwregs[upper_flash_index] -= tifile->flash->pages;
+	}
 
 	/*
 	 for (i = page - 7; i <= page + tifile->flash->pages - 8; i++) {
@@ -288,6 +380,14 @@ void calc_erase_certificate(unsigned char *mem, int size) {
 	return;
 }
 
+//flash page the page index of an OS upgrade goes to
+u_int os_flash_page(int flash_pages, u_int index) {
+	if (index > 0x10) {
+		return index + flash_pages - 0x20;
+	}
+	return index;
+}
+
 LINK_ERR forceload_os(TilemCalc* calc, TIFILE_t *tifile) {
 	int flash_pages = FLASH_PAGES(calc);
 
@@ -303,11 +403,7 @@ LINK_ERR forceload_os(TilemCalc* calc, TIFILE_t *tifile) {
 		if (tifile->flash->data[i] == NULL) {
 			continue;
 		}
-		if (i > 0x10) {
-			page = i + flash_pages - 0x20;
-		} else {
-			page = i;
-		}
+		page = os_flash_page(flash_pages, i);
 		int sector = (page / 4) * 4;
 		int size;
 		if (sector >= flash_pages - 4) {
@@ -321,11 +417,7 @@ LINK_ERR forceload_os(TilemCalc* calc, TIFILE_t *tifile) {
 		if (tifile->flash->data[i] == NULL) {
 			continue;
 		}
-		if (i > 0x10) {
-			page = i + flash_pages - 0x20;
-		} else {
-			page = i;
-		}
+		page = os_flash_page(flash_pages, i);
 
 		memcpy(dest[page], tifile->flash->data[i], PAGE_SIZE_W);
 	}
@@ -344,7 +436,7 @@ LINK_ERR link_send_var(TilemCalc* calc, TIFILE_t *tifile, SEND_FLAG dest) {
 		case FLASH_TYPE_OS:
 			return forceload_os(calc, tifile);
 		case FLASH_TYPE_APP:
-			return forceload_app(calc, tifile);
+			return forceload_app(calc, tifile, NULL);
 		}
 	}
 
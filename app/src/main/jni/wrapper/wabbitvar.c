@@ -22,8 +22,14 @@
 
 #include <stdio.h>
 #include <stdlib.h>
+#include <stdint.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
 #include <wabbit.h>
 #include <tilem.h>
+#include <screenkernels.h>
 
 const char self_test[] = "Self Test?";
 const char catalog[] = "CATALOG";
@@ -89,7 +95,8 @@ TIFILE_t* FreeTiFile(TIFILE_t * tifile) {
 	return NULL;
 }
 
-static void ReadTiFileHeader(FILE *infile, TIFILE_t *tifile) {
+/* Returns -1 on a bad header, the caller closes the file and frees tifile */
+static int ReadTiFileHeader(FILE *infile, TIFILE_t *tifile) {
 	char headerString[8];
 	int i, tmp;
 
@@ -99,23 +106,18 @@ static void ReadTiFileHeader(FILE *infile, TIFILE_t *tifile) {
 	if (!_strnicmp(headerString, FLASH_HEADER, 8)) {
 		tifile->type = FLASH_TYPE;
 		tifile->flash = (TIFLASH_t*) malloc(sizeof(TIFLASH_t));
+		if (tifile->flash == NULL)
+			return -1;
 		ZeroMemory(tifile->flash, sizeof(TIFLASH_t));
-		if (tifile->flash == NULL) {
-			FreeTiFile(tifile);
-			return;
-		}
 
 		unsigned char *ptr = (unsigned char *) tifile->flash;
 		for (i = 0; i < TI_FLASH_HEADER_SIZE && !feof(infile); i++) {
 			tmp = fgetc(infile);
-			if (tmp == EOF) {
-				fclose(infile);
-				FreeTiFile(tifile);
-				return;
-			}
+			if (tmp == EOF)
+				return -1;
 			ptr[i] = tmp;
 		}
-		return;
+		return 0;
 	}
 
 	/* It maybe a rom if it doesn't have the Standard header */
@@ -126,17 +128,15 @@ static void ReadTiFileHeader(FILE *infile, TIFILE_t *tifile) {
 			&& _strnicmp(headerString, "**TI85**", 8)
 			&& _strnicmp(headerString, "**TI86**", 8)) {
 		tifile->type = ROM_TYPE;
-		return;
+		return 0;
 	}
 
 	/* Import file Header */
 	unsigned char *ptr = (unsigned char *) tifile;
 	for (i = 0; i < TI_FILE_HEADER_SIZE && !feof(infile); i++) {
 		tmp = fgetc(infile);
-		if (tmp == EOF) {
-			FreeTiFile(tifile);
-			return;
-		}
+		if (tmp == EOF)
+			return -1;
 		ptr[i] = tmp;
 	}
 
@@ -152,11 +152,9 @@ static void ReadTiFileHeader(FILE *infile, TIFILE_t *tifile) {
 		tifile->model = TI_85;
 	else if (!_strnicmp((char *) tifile->sig, "**TI86**", 8))
 		tifile->model = TI_86;
-	else {
-		FreeTiFile(tifile);
-		return;
-	}
-	return;
+	else
+		return -1;
+	return 0;
 }
 
 TIFILE_t* importvar(const char * filePath, BOOL only_check_header) {
@@ -199,7 +197,10 @@ TIFILE_t* importvar(const char * filePath, BOOL only_check_header) {
 		return FreeTiFile(tifile);
 	}
 
-	ReadTiFileHeader(infile, tifile);
+	if (ReadTiFileHeader(infile, tifile)) {
+		fclose(infile);
+		return FreeTiFile(tifile);
+	}
 
 	if (only_check_header && tifile->type != ROM_TYPE) {
 		fclose(infile);
@@ -211,6 +212,130 @@ TIFILE_t* importvar(const char * filePath, BOOL only_check_header) {
 	return tifile;
 }
 
+/*
+ * Parsed flash files, keyed by a hash of their contents. Uploads are
+ * temporary copies, so the path says nothing, but the same app sent again
+ * after a reset or to another instance hashes the same and skips the
+ * Intel hex decoding. Least recently used entries go first once the cache
+ * holds more than IMPORT_CACHE_BYTES of pages. The cache outlives the
+ * emulator instance on purpose.
+ */
+#define IMPORT_CACHE_ENTRIES	4
+#define IMPORT_CACHE_BYTES		(4 * 1024 * 1024)
+
+typedef struct {
+	uint64_t hash;
+	off_t size;
+	TIFILE_t *tifile;
+	size_t bytes;
+	u_int used;
+} import_cache_t;
+
+static import_cache_t import_cache[IMPORT_CACHE_ENTRIES];
+static u_int import_clock = 0;
+
+/* mmap, so hashing a multi MB OS doesn't go through a read buffer */
+static int hash_file(const char *filePath, uint64_t *hash, off_t *size) {
+	struct stat st;
+	void *data;
+	int fd = open(filePath, O_RDONLY);
+
+	if (fd < 0)
+		return -1;
+
+	if (fstat(fd, &st) || st.st_size <= 0) {
+		close(fd);
+		return -1;
+	}
+
+	data = mmap(NULL, st.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+	close(fd);
+	if (data == MAP_FAILED)
+		return -1;
+
+	*hash = g89_hash(0, (const uint8_t *) data, (int) st.st_size);
+	*size = st.st_size;
+	munmap(data, st.st_size);
+	return 0;
+}
+
+static size_t tifile_bytes(TIFILE_t *tifile) {
+	size_t bytes = sizeof(TIFILE_t);
+	int i;
+
+	if (tifile->flash) {
+		bytes += sizeof(TIFLASH_t);
+		for (i = 0; i < 256; i++)
+			if (tifile->flash->data[i])
+				bytes += PAGE_SIZE_W;
+	}
+	return bytes;
+}
+
+static void import_cache_evict(size_t incoming) {
+	size_t total = incoming;
+	int i;
+
+	for (i = 0; i < IMPORT_CACHE_ENTRIES; i++)
+		total += import_cache[i].bytes;
+
+	while (total > IMPORT_CACHE_BYTES) {
+		int oldest = -1;
+
+		for (i = 0; i < IMPORT_CACHE_ENTRIES; i++)
+			if (import_cache[i].tifile && (oldest < 0 || import_cache[i].used < import_cache[oldest].used))
+				oldest = i;
+		if (oldest < 0)
+			break;
+
+		total -= import_cache[oldest].bytes;
+		FreeTiFile(import_cache[oldest].tifile);
+		memset(&import_cache[oldest], 0, sizeof(import_cache_t));
+	}
+}
+
+/* Full import of a flash file through the cache. The cache owns the result,
+ * it stays valid until the next call. */
+TIFILE_t* importvar_cached(const char *filePath) {
+	uint64_t hash;
+	off_t size;
+	TIFILE_t *tifile;
+	int i, slot = 0;
+
+	if (hash_file(filePath, &hash, &size))
+		return NULL;
+
+	for (i = 0; i < IMPORT_CACHE_ENTRIES; i++) {
+		if (import_cache[i].tifile && import_cache[i].hash == hash && import_cache[i].size == size) {
+			import_cache[i].used = ++import_clock;
+			return import_cache[i].tifile;
+		}
+	}
+
+	tifile = importvar(filePath, 0);
+	if (tifile == NULL || tifile->type != FLASH_TYPE)
+		return FreeTiFile(tifile);
+
+	import_cache_evict(tifile_bytes(tifile));
+
+	for (i = 0; i < IMPORT_CACHE_ENTRIES; i++) {
+		if (!import_cache[i].tifile) {
+			slot = i;
+			break;
+		}
+		if (import_cache[i].used < import_cache[slot].used)
+			slot = i;
+	}
+
+	FreeTiFile(import_cache[slot].tifile);
+	import_cache[slot].hash = hash;
+	import_cache[slot].size = size;
+	import_cache[slot].tifile = tifile;
+	import_cache[slot].bytes = tifile_bytes(tifile);
+	import_cache[slot].used = ++import_clock;
+	return tifile;
+}
+
 static short length2 = 0;
 static TIFILE_t* ImportVarData(FILE *infile, TIFILE_t *tifile, int varNumber) {
 	switch (tifile->type) {
@@ -25,36 +25,65 @@
 #include <wrappercommon.h>
 #include <tiemuwrapper.h>
 #include <tilemwrapper.h>
+#include <screenkernels.h>
 #include <androidlog.h>
 
 const uint8_t g89_shift_table[]={0x80, 0x40, 0x20, 0x10, 0x8, 0x4, 0x2, 0x1};
-uint32_t g89_crc_table[256];
 
 bool is_tiemu = false;
 bool is_tilem = false;
 
 graph89_emulator_params_struct graph89_emulator_params = {0};
 
+//a transfer runs on the engine thread, cancel comes from the UI thread
+static volatile bool transfer_active = false;
+static volatile bool transfer_cancelled = false;
+
+//an instance parked by graph89_suspend_commons, kept until it is resumed or trimmed
+typedef struct
+{
+	int calc_type;
+	char image_file[512];
+	char state_file[512];
+	int size;
+	void* context;
+}standby_struct;
+
+//the least recently used first
+static standby_struct standby[STANDBY_MAX_ENTRIES];
+static int standby_count = 0;
+
+static char active_image_file[512];
+static char active_state_file[512];
+
 static void calc_type_parse(int calc_type);
 static bool calc_type_is_tiemu(int calc_type);
 static bool calc_type_is_tilem(int calc_type);
 static void init_engines();
+static void release_active();
+static int  standby_find(int calc_type, const char* image_file, const char* state_file);
+static void standby_remove(int index);
+static void standby_drop(int index);
+static void standby_trim(int limit);
+static void standby_drop_tiemu();
 static void init_display_buffer(display_buffer_struct* buffer, int width, int height);
 static void free_display_buffers();
 static void free_display_buffer(display_buffer_struct* disp);
-static void build_crc_table(void);
-static void scale_line(uint32_t *target, uint32_t *source, int src_width, int tgt_width);
-static void scale_rect(uint32_t *target, uint32_t *source, int src_width, int src_height, int tgt_width, int tgt_height);
+static void scale_rect(uint32_t *target, uint32_t *source, int src_width, int src_height, int zoom);
+static void scale_rect_grid(uint32_t *target, uint32_t *source, int src_width, int src_height, int zoom, const uint8_t *pattern);
+static void scale_rect_indexed(uint32_t *target, const uint8_t *source, const uint32_t *palette, int src_width, int src_height, int zoom);
 static void set_display_colors(uint32_t pixel_on, uint32_t pixel_off, uint32_t grid_color);
 static int  average_colors(uint32_t col1, uint32_t col2);
-static void build_grid_mask();
+static uint8_t* build_grid_pattern(int zoom);
+static void render_screen(uint32_t* out_buffer, int zoom, const uint8_t* grid_pattern);
 
-void graph89_init_commons(int calc_type, int screen_width, int screen_height, int screen_zoom, bool is_grayscale, bool is_grid, uint32_t pixel_on_color,
-		uint32_t pixel_off_color, uint32_t grid_color, double speed_coefficient, const char* tmp_dir)
+int graph89_init_commons(int calc_type, const char* image_file, const char* state_file, int screen_width, int screen_height, int screen_zoom, bool is_grayscale,
+		bool is_grid, uint32_t pixel_on_color, uint32_t pixel_off_color, uint32_t grid_color, double speed_coefficient, const char* tmp_dir)
 {
-	graph89_clean_commons();
+	int index;
+	void* context;
 
-	build_crc_table();
+	release_active();
 
 	graph89_emulator_params.calc_type = calc_type;
 	init_display_buffer(&graph89_emulator_params.display_buffer_not_zoomed, screen_width, screen_height);
@@ -62,10 +91,11 @@ void graph89_init_commons(int calc_type, int screen_width, int screen_height, in
 	graph89_emulator_params.is_grayscale = is_grayscale;
 	graph89_emulator_params.is_grid = is_grid;
 	graph89_emulator_params.speed_coefficient = speed_coefficient;
+	graph89_emulator_params.slice_scale = 1.0;
 
 	set_display_colors(pixel_on_color, pixel_off_color, grid_color);
 
-	if (is_grid) build_grid_mask();
+	if (is_grid) graph89_emulator_params.grid_pattern = build_grid_pattern(screen_zoom);
 
 	calc_type_parse(calc_type);
 
@@ -74,11 +104,96 @@ void graph89_init_commons(int calc_type, int screen_width, int screen_height, in
 		tiemu_set_tmp_dir(tmp_dir);
 	}
 
+	strncpy(active_image_file, image_file, sizeof(active_image_file) - 1);
+	strncpy(active_state_file, state_file, sizeof(active_state_file) - 1);
+
+	index = standby_find(calc_type, image_file, state_file);
+
+	if (index >= 0)
+	{
+		context = standby[index].context;
+		standby_remove(index);
+
+		if (is_tiemu)
+		{
+			tiemu_resume(context);
+		}
+		else
+		{
+			tilem_resume(context);
+		}
+
+		return 1;
+	}
+
+	//TiEmu has a single context, a parked instance has to make room
+	if (is_tiemu)
+	{
+		standby_drop_tiemu();
+	}
+
 	init_engines();
+	return 0;
+}
+
+/*
+ * Parks the running instance instead of freeing it, so that graph89_init_commons
+ * can pick it up again without loading the image and the state. limit is the
+ * memory, in bytes, all the parked instances may use. The oldest go first.
+ */
+void graph89_suspend_commons(int limit)
+{
+	int size = 0;
+	void* context = NULL;
+
+	graph89_input_log_stop();
+
+	if (is_tiemu)
+	{
+		size = tiemu_context_size();
+	}
+	else if (is_tilem)
+	{
+		size = tilem_context_size();
+	}
+
+	if (size > 0 && size <= limit)
+	{
+		if (standby_count == STANDBY_MAX_ENTRIES) standby_drop(0);
+
+		context = is_tiemu ? tiemu_suspend() : tilem_suspend();
+	}
+
+	if (context != NULL)
+	{
+		standby_struct* entry = &standby[standby_count++];
+
+		entry->calc_type = graph89_emulator_params.calc_type;
+		strncpy(entry->image_file, active_image_file, sizeof(entry->image_file));
+		strncpy(entry->state_file, active_state_file, sizeof(entry->state_file));
+		entry->size = size;
+		entry->context = context;
+
+		free_display_buffers();
+		is_tiemu = false;
+		is_tilem = false;
+	}
+	else
+	{
+		release_active();
+	}
+
+	standby_trim(limit);
 }
 
 void graph89_clean_commons()
 {
+	while (standby_count > 0)
+	{
+		standby_drop(standby_count - 1);
+	}
+
+	graph89_input_log_stop();
 	tiemu_clean();
 	tilem_clean();
 	free_display_buffers();
@@ -102,42 +217,78 @@ int graph89_read_emulated_screen (uint8_t *return_flags)
 void graph89_get_emulated_screen (uint32_t* out_buffer, int out_buffer_length)
 {
 	int zoom = graph89_emulator_params.screen_zoom;
-	uint32_t* not_scaled_buffer = graph89_emulator_params.display_buffer_not_zoomed.buffer;
-	uint32_t  not_scaled_buffer_length = graph89_emulator_params.display_buffer_not_zoomed.length;
-	int not_scaled_buffer_width = graph89_emulator_params.display_buffer_not_zoomed.width;
-	int not_scaled_buffer_height = graph89_emulator_params.display_buffer_not_zoomed.height;
+	int length = graph89_emulator_params.display_buffer_not_zoomed.length * zoom * zoom;
 
-	if (out_buffer_length != not_scaled_buffer_width * not_scaled_buffer_height * zoom * zoom)
+	if (out_buffer_length != length)
 	{
-		LOGI("Error: buffer size doesn't match %d with %d", out_buffer_length, not_scaled_buffer_width * not_scaled_buffer_height * zoom * zoom);
+		LOGI("Error: buffer size doesn't match %d with %d", out_buffer_length, length);
 		return;
 	}
 
-	scale_rect(out_buffer, not_scaled_buffer, not_scaled_buffer_width, not_scaled_buffer_height, not_scaled_buffer_width * zoom, not_scaled_buffer_height * zoom);
+	render_screen(out_buffer, zoom, graph89_emulator_params.grid_pattern);
+}
 
-	if (graph89_emulator_params.is_grid)
+//the frame as last read, scaled by zoom. Leaves screen_zoom and the live grid pattern alone.
+void graph89_render_screen (uint32_t* out_buffer, int out_buffer_length, int zoom)
+{
+	int length = graph89_emulator_params.display_buffer_not_zoomed.length * zoom * zoom;
+	uint8_t* grid_pattern = NULL;
+
+	if (zoom < 1 || out_buffer_length != length)
 	{
-		int i;
-		uint32_t avgColor = graph89_emulator_params.skin_colors.grid_on_color;
-		uint32_t pixel_on = graph89_emulator_params.skin_colors.pixel_on;
-		uint32_t grid_color = graph89_emulator_params.skin_colors.grid_color;
-		uint8_t* grid_mask = graph89_emulator_params.grid_mask;
+		LOGI("Error: buffer size doesn't match %d with %d", out_buffer_length, length);
+		return;
+	}
 
-		for (i = 0; i < out_buffer_length; ++i)
+	if (graph89_emulator_params.is_grid)
+	{
+		if (zoom == graph89_emulator_params.screen_zoom)
 		{
-			if (!grid_mask[i])
-			{
-				if (out_buffer[i] == pixel_on)
-				{
-					out_buffer[i] = avgColor;
-				}
-				else
-				{
-					out_buffer[i] = grid_color;
-				}
-			}
+			grid_pattern = graph89_emulator_params.grid_pattern;
+		}
+		else
+		{
+			grid_pattern = build_grid_pattern(zoom);
 		}
 	}
+
+	render_screen(out_buffer, zoom, grid_pattern);
+
+	if (grid_pattern != graph89_emulator_params.grid_pattern) free(grid_pattern);
+}
+
+//the 1x frame as last read, for captures that mustn't depend on the screen zoom
+void graph89_get_emulated_screen_x1 (uint32_t* out_buffer, int out_buffer_length)
+{
+	display_buffer_struct* disp = &graph89_emulator_params.display_buffer_not_zoomed;
+
+	if (out_buffer_length != disp->length)
+	{
+		LOGI("Error: buffer size doesn't match %d with %d", out_buffer_length, disp->length);
+		return;
+	}
+
+	memcpy(out_buffer, graph89_resolve_display_buffer(), disp->length * sizeof(uint32_t));
+}
+
+//indices is width * height bytes, palette maps them to ARGB. NULL goes back to the ARGB buffer.
+void graph89_set_indexed_frame(const uint8_t* indices, const uint32_t* palette)
+{
+	graph89_emulator_params.display_buffer_not_zoomed.indices = indices;
+	graph89_emulator_params.display_buffer_not_zoomed.palette = palette;
+}
+
+//the 1x ARGB frame, expanded from the indices if the frame is indexed
+uint32_t* graph89_resolve_display_buffer()
+{
+	display_buffer_struct* disp = &graph89_emulator_params.display_buffer_not_zoomed;
+
+	if (disp->indices)
+	{
+		g89_expand_indexed(disp->buffer, disp->indices, disp->length, disp->palette, 1);
+	}
+
+	return disp->buffer;
 }
 
 void graph89_update_screen_zoom(int screen_zoom)
@@ -146,28 +297,223 @@ void graph89_update_screen_zoom(int screen_zoom)
 
 	if (graph89_emulator_params.is_grid)
 	{
-		free(graph89_emulator_params.grid_mask);
-		build_grid_mask();
+		free(graph89_emulator_params.grid_pattern);
+		graph89_emulator_params.grid_pattern = build_grid_pattern(screen_zoom);
 	}
 }
 
-int graph89_install_rom(const char* source, const char* destination, int calc_type, int is_rom)
+int graph89_install_rom(const char* source, const char* destination, int calc_type, int is_rom, const install_listener_struct* listener)
 {
 	if (calc_type_is_tiemu(calc_type))
 	{
-		return tiemu_install_rom(source, destination, calc_type, is_rom);
+		return tiemu_install_rom(source, destination, calc_type, is_rom, listener);
 	}
 	else if (calc_type_is_tilem(calc_type))
 	{
-		return tilem_install_rom(source, destination, calc_type, is_rom);
+		return tilem_install_rom(source, destination, calc_type, is_rom, listener);
 	}
 
 	return -1;
 }
 
+//writing is the first half of the progress, reading back the second one
+static void image_progress(const image_writer_struct* writer, int done)
+{
+	if (writer->listener && writer->listener->progress)
+	{
+		writer->listener->progress(writer->listener->context, done, writer->total * 2);
+	}
+}
+
+int graph89_image_open(image_writer_struct* writer, const char* path, int total, const install_listener_struct* listener)
+{
+	memset(writer, 0, sizeof(image_writer_struct));
+	writer->total = total;
+	writer->listener = listener;
+
+	if (path)
+	{
+		writer->file = fopen(path, "wb");
+		if (!writer->file) return -1;
+	}
+
+	image_progress(writer, 0);
+	return 0;
+}
+
+int graph89_image_write(image_writer_struct* writer, const void* data, int length)
+{
+	if (writer->file && fwrite(data, 1, length, writer->file) != (size_t)length) return -1;
+
+	writer->hash = g89_hash(writer->hash, (const uint8_t*) data, length);
+	writer->written += length;
+
+	if (writer->written > writer->total) writer->total = writer->written;
+	image_progress(writer, writer->written);
+
+	return 0;
+}
+
+//closes the file and checks what ended up on the storage against what was written
+int graph89_image_close(image_writer_struct* writer, const char* path)
+{
+	uint8_t buf[65536];
+	uint64_t hash = 0;
+	int read = 0;
+	size_t size;
+	FILE* file;
+
+	if (writer->file)
+	{
+		int error = fclose(writer->file);
+		writer->file = NULL;
+		if (error) return -1;
+	}
+
+	writer->total = writer->written;
+
+	file = fopen(path, "rb");
+	if (!file) return -1;
+
+	while ((size = fread(buf, 1, sizeof(buf), file)) > 0)
+	{
+		hash = g89_hash(hash, buf, (int) size);
+		read += (int) size;
+		image_progress(writer, writer->total + (read < writer->total ? read : writer->total));
+	}
+
+	fclose(file);
+
+	if (read != writer->written || hash != writer->hash)
+	{
+		LOGI("Graph89 image verification failed: %d of %d bytes", read, writer->written);
+		return GRAPH89_ERR_VERIFY;
+	}
+
+	return 0;
+}
+
+static int hash_file(const char* path, uint64_t* hash, long* size)
+{
+	uint8_t buf[65536];
+	size_t read;
+	FILE* file = fopen(path, "rb");
+
+	if (!file) return -1;
+
+	*hash = 0;
+	*size = 0;
+
+	while ((read = fread(buf, 1, sizeof(buf), file)) > 0)
+	{
+		*hash = g89_hash(*hash, buf, (int) read);
+		*size += (long) read;
+	}
+
+	fclose(file);
+	return 0;
+}
+
+static char* checksum_path(const char* path)
+{
+	char* sum = (char*) malloc(strlen(path) + sizeof(CHECKSUM_EXTENSION));
+	strcpy(sum, path);
+	strcat(sum, CHECKSUM_EXTENSION);
+	return sum;
+}
+
+//before the state is overwritten. Without a checksum the state is taken as it is,
+//so dying between the two writes can't leave an old checksum next to a new state.
+void graph89_remove_checksum(const char* path)
+{
+	char* sum = checksum_path(path);
+	remove(sum);
+	free(sum);
+}
+
+//next to a saved state, so that a state cut short or damaged later is noticed before loading it.
+//Written aside and renamed into place, a checksum file is either whole or missing.
+void graph89_write_checksum(const char* path)
+{
+	char* sum = checksum_path(path);
+	char* tmp = (char*) malloc(strlen(sum) + sizeof(CHECKSUM_TMP_EXTENSION));
+	uint64_t hash;
+	long size;
+	FILE* file;
+	int ret = -1;
+
+	strcpy(tmp, sum);
+	strcat(tmp, CHECKSUM_TMP_EXTENSION);
+
+	if (hash_file(path, &hash, &size) == 0 && (file = fopen(tmp, "w")) != NULL)
+	{
+		ret = fprintf(file, "%016llx %ld\n", (unsigned long long) hash, size) < 0;
+		ret |= fclose(file) != 0;
+
+		if (ret == 0) ret = rename(tmp, sum);
+	}
+
+	if (ret != 0) remove(tmp);
+
+	free(tmp);
+	free(sum);
+}
+
+//a state without a checksum (older versions, restored backups) is taken as it is
+static int check_checksum(const char* path)
+{
+	char* sum = checksum_path(path);
+	unsigned long long saved_hash;
+	long saved_size, size;
+	uint64_t hash;
+	int ret = 0;
+
+	FILE* file = fopen(sum, "r");
+	free(sum);
+
+	if (!file) return 0;
+
+	if (fscanf(file, "%llx %ld", &saved_hash, &saved_size) == 2)
+	{
+		if (hash_file(path, &hash, &size) != 0 || size != saved_size || hash != (uint64_t) saved_hash)
+		{
+			ret = GRAPH89_ERR_CHECKSUM;
+		}
+	}
+
+	fclose(file);
+	return ret;
+}
+
+//safe on any thread, only reads the files of the instance. Unknown types are not checked.
+int graph89_check_instance(int calc_type, const char* image_file, const char* state_file)
+{
+	int ret = 0;
+
+	if (calc_type_is_tiemu(calc_type))
+	{
+		ret = tiemu_check_instance(image_file, state_file);
+	}
+	else if (calc_type_is_tilem(calc_type))
+	{
+		ret = tilem_check_instance(calc_type, image_file, state_file);
+	}
+
+	if (ret == 0 && state_file != NULL && state_file[0] != 0)
+	{
+		ret = check_checksum(state_file);
+	}
+
+	return ret;
+}
+
 void graph89_send_key(int key_code, int is_pressed)
 {
-	if (is_tiemu)
+	if (graph89_emulator_params.is_deterministic)
+	{
+		graph89_input_log_key(key_code, is_pressed);
+	}
+	else if (is_tiemu)
 	{
 		tiemu_send_key(key_code, is_pressed);
 	}
@@ -177,9 +523,46 @@ void graph89_send_key(int key_code, int is_pressed)
 	}
 }
 
-void graph89_send_keys(int* key_codes, int length)
+void graph89_transfer_begin()
+{
+	transfer_cancelled = false;
+	transfer_active = true;
+}
+
+void graph89_transfer_end()
+{
+	transfer_active = false;
+}
+
+bool graph89_transfer_cancelled()
 {
+	return transfer_cancelled;
+}
+
+//the link code gives up at its next slice, the remaining files are skipped
+void graph89_cancel_transfer()
+{
+	if (!transfer_active) return;
+
+	transfer_cancelled = true;
+
 	if (is_tiemu)
+	{
+		tiemu_cancel_transfer();
+	}
+	else if (is_tilem)
+	{
+		tilem_cancel_transfer();
+	}
+}
+
+void graph89_send_keys(int* key_codes, int length)
+{
+	if (graph89_emulator_params.is_deterministic)
+	{
+		graph89_input_log_keys(key_codes, length);
+	}
+	else if (is_tiemu)
 	{
 		tiemu_send_keys(key_codes, length);
 	}
@@ -189,6 +572,27 @@ void graph89_send_keys(int* key_codes, int length)
 	}
 }
 
+int64_t graph89_get_emulated_time()
+{
+	return graph89_emulator_params.emulated_time;
+}
+
+void graph89_set_slice_scale(double scale)
+{
+	graph89_emulator_params.slice_scale = scale;
+}
+
+//cycle budget of an engine slice relative to the default one
+double graph89_slice_coefficient()
+{
+	if (graph89_emulator_params.is_deterministic)
+	{
+		return graph89_emulator_params.speed_coefficient;
+	}
+
+	return graph89_emulator_params.speed_coefficient * graph89_emulator_params.slice_scale;
+}
+
 ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 static void calc_type_parse(int calc_type)
 {
@@ -245,12 +649,100 @@ static void init_engines()
 	}
 }
 
+static void release_active()
+{
+	graph89_input_log_stop();
+
+	if (is_tiemu)
+	{
+		tiemu_clean();
+	}
+	else if (is_tilem)
+	{
+		tilem_clean();
+	}
+
+	free_display_buffers();
+
+	is_tiemu = false;
+	is_tilem = false;
+}
+
+static int standby_find(int calc_type, const char* image_file, const char* state_file)
+{
+	int i;
+
+	for (i = 0; i < standby_count; ++i)
+	{
+		if (standby[i].calc_type == calc_type && !strcmp(standby[i].image_file, image_file) && !strcmp(standby[i].state_file, state_file))
+		{
+			return i;
+		}
+	}
+
+	return -1;
+}
+
+static void standby_remove(int index)
+{
+	memmove(&standby[index], &standby[index + 1], (standby_count - index - 1) * sizeof(standby_struct));
+	--standby_count;
+}
+
+static void standby_drop(int index)
+{
+	if (calc_type_is_tiemu(standby[index].calc_type))
+	{
+		tiemu_free_standby(standby[index].context);
+	}
+	else
+	{
+		tilem_free_standby(standby[index].context);
+	}
+
+	standby_remove(index);
+}
+
+//drops the oldest instances until the rest fits in limit
+static void standby_trim(int limit)
+{
+	int total = 0;
+	int i;
+
+	for (i = standby_count - 1; i >= 0; --i)
+	{
+		total += standby[i].size;
+
+		if (total > limit)
+		{
+			total -= standby[i].size;
+			standby_drop(i);
+		}
+	}
+}
+
+//the parked TiEmu instance, if any. TilEm ones are left to the memory cap.
+static void standby_drop_tiemu()
+{
+	int i;
+
+	for (i = standby_count - 1; i >= 0; --i)
+	{
+		if (calc_type_is_tiemu(standby[i].calc_type))
+		{
+			standby_drop(i);
+		}
+	}
+}
+
 static void init_display_buffer(display_buffer_struct* buffer, int width, int height)
 {
 	buffer->width = width;
 	buffer->height = height;
 	buffer->length = width * height;
 	buffer->buffer = (uint32_t*) malloc(buffer->length * sizeof(uint32_t));
+	buffer->indices = NULL;
+	buffer->palette = NULL;
 }
 
 static void free_display_buffers()
@@ -258,9 +750,10 @@ static void free_display_buffers()
 	free(graph89_emulator_params.display_buffer_not_zoomed.buffer);
 	graph89_emulator_params.display_buffer_not_zoomed.buffer = NULL;
 	graph89_emulator_params.display_buffer_not_zoomed.length = 0;
+	graph89_set_indexed_frame(NULL, NULL);
 
-	free (graph89_emulator_params.grid_mask);
-	graph89_emulator_params.grid_mask = NULL;
+	free (graph89_emulator_params.grid_pattern);
+	graph89_emulator_params.grid_pattern = NULL;
 }
 
 static void set_display_colors(uint32_t pixel_on, uint32_t pixel_off, uint32_t grid_color)
@@ -272,67 +765,125 @@ static void set_display_colors(uint32_t pixel_on, uint32_t pixel_off, uint32_t g
 	graph89_emulator_params.skin_colors.grid_on_color = average_colors(grid_color, pixel_on);
 }
 
-static void build_crc_table(void)
-{
-	uint32_t i,j;
-
-    for (i = 0; i < 256; i++)
-    {
-        uint32_t c = i;
-        for (j = 0; j < 8; j++)
-        {
-            c = (c & 1) ? (0xEDB88320 ^ (c >> 1)) : (c >> 1);
-        }
-        g89_crc_table[i] = c;
-    }
-}
-
-static void scale_line(uint32_t *target, uint32_t *source, int src_width, int tgt_width)
-{
-  int NumPixels = tgt_width;
-  int IntPart = src_width / tgt_width;
-  int FractPart = src_width % tgt_width;
-  int E = 0;
-  while (NumPixels-- > 0)
-  {
-    *target++ = *source;
-    source += IntPart;
-    E += FractPart;
-    if (E >= tgt_width)
-    {
-      E -= tgt_width;
-      source++;
-    }
-  }
-}
-
-static void scale_rect(uint32_t *target, uint32_t *source, int src_width, int src_height, int tgt_width, int tgt_height)
-{
-  int NumPixels = tgt_height;
-  int IntPart = (src_height / tgt_height) * src_width;
-  int FractPart = src_height % tgt_height;
-  int E = 0;
-  uint32_t *PrevSource = NULL;
-  while (NumPixels-- > 0)
-  {
-    if (source == PrevSource)
-    {
-      memcpy(target, target-tgt_width, tgt_width*sizeof(*target));
-    }
-    else
-    {
-      scale_line(target, source, src_width, tgt_width);
-      PrevSource = source;
-    }
-    target += tgt_width;
-    source += IntPart;
-    E += FractPart;
-    if (E >= tgt_height)
-    {
-      E -= tgt_height;
-      source += src_width;
-    }
-  }
+static void render_screen(uint32_t* out_buffer, int zoom, const uint8_t* grid_pattern)
+{
+	display_buffer_struct* disp = &graph89_emulator_params.display_buffer_not_zoomed;
+
+	if (graph89_emulator_params.is_grid)
+	{
+		scale_rect_grid(out_buffer, graph89_resolve_display_buffer(), disp->width, disp->height, zoom, grid_pattern);
+	}
+	else if (disp->indices)
+	{
+		scale_rect_indexed(out_buffer, disp->indices, disp->palette, disp->width, disp->height, zoom);
+	}
+	else
+	{
+		scale_rect(out_buffer, disp->buffer, disp->width, disp->height, zoom);
+	}
+}
+
+static void scale_rect(uint32_t *target, uint32_t *source, int src_width, int src_height, int zoom)
+{
+	int j, k;
+	int tgt_width = src_width * zoom;
+
+	for (j = 0; j < src_height; ++j)
+	{
+		g89_replicate_line(target, source, src_width, zoom);
+
+		for (k = 1; k < zoom; ++k)
+		{
+			memcpy(target + k * tgt_width, target, tgt_width * sizeof(*target));
+		}
+
+		target += tgt_width * zoom;
+		source += src_width;
+	}
+}
+
+//palette lookup fused into the horizontal replication, so the ARGB frame is
+//only ever written at the zoomed size
+static void scale_rect_indexed(uint32_t *target, const uint8_t *source, const uint32_t *palette, int src_width, int src_height, int zoom)
+{
+	int j, k;
+	int tgt_width = src_width * zoom;
+
+	for (j = 0; j < src_height; ++j)
+	{
+		g89_expand_indexed(target, source, src_width, palette, zoom);
+
+		for (k = 1; k < zoom; ++k)
+		{
+			memcpy(target + k * tgt_width, target, tgt_width * sizeof(*target));
+		}
+
+		target += tgt_width * zoom;
+		source += src_width;
+	}
+}
+
+//scale_rect with the grid applied on the way. Each zoomed block is built from
+//two template rows: a lit row, where only the grid columns are recolored, and
+//a grid row, where every pixel is. The other rows of the block are copies.
+static void scale_rect_grid(uint32_t *target, uint32_t *source, int src_width, int src_height, int zoom, const uint8_t *pattern)
+{
+	int i, j, k;
+	int tgt_width = src_width * zoom;
+	uint32_t pixel_on = graph89_emulator_params.skin_colors.pixel_on;
+	uint32_t on_color = graph89_emulator_params.skin_colors.grid_on_color;
+	uint32_t off_color = graph89_emulator_params.skin_colors.grid_color;
+	int lit_row = -1;
+	int grid_row = -1;
+
+	for (k = 0; k < zoom; ++k)
+	{
+		if (pattern[k] && lit_row < 0) lit_row = k;
+		if (!pattern[k] && grid_row < 0) grid_row = k;
+	}
+
+	for (j = 0; j < src_height; ++j)
+	{
+		if (lit_row >= 0)
+		{
+			uint32_t* lit = target + lit_row * tgt_width;
+
+			g89_replicate_line(lit, source, src_width, zoom);
+
+			if (grid_row >= 0)
+			{
+				g89_grid_map(target + grid_row * tgt_width, lit, tgt_width, pixel_on, on_color, off_color);
+			}
+
+			for (k = 0; k < zoom; ++k)
+			{
+				if (pattern[k]) continue;
+
+				for (i = k; i < tgt_width; i += zoom)
+				{
+					lit[i] = lit[i] == pixel_on ? on_color : off_color;
+				}
+			}
+		}
+		else
+		{
+			g89_replicate_line(target, source, src_width, zoom);
+			g89_grid_map(target, target, tgt_width, pixel_on, on_color, off_color);
+		}
+
+		for (k = 0; k < zoom; ++k)
+		{
+			int from = pattern[k] ? lit_row : grid_row;
+
+			if (k != from)
+			{
+				memcpy(target + k * tgt_width, target + from * tgt_width, tgt_width * sizeof(*target));
+			}
+		}
+
+		target += tgt_width * zoom;
+		source += src_width;
+	}
 }
 
 static int average_colors(uint32_t col1, uint32_t col2)
@@ -356,45 +907,19 @@ static int average_colors(uint32_t col1, uint32_t col2)
 	return out;
 }
 
-static void build_grid_mask()
+static uint8_t* build_grid_pattern(int zoom)
 {
-	int zoom = graph89_emulator_params.screen_zoom;
-	int width = graph89_emulator_params.display_buffer_not_zoomed.width * zoom;
-	int height = graph89_emulator_params.display_buffer_not_zoomed.height * zoom;
-	graph89_emulator_params.grid_mask = malloc(width * height * sizeof(uint8_t));
-
 	uint8_t blank_lines = zoom / 5 + 1;
 	uint8_t on = zoom - blank_lines;
 
-	int i, j, k;
+	int i;
 
-	uint8_t *mask;
-	mask = calloc(zoom, sizeof(uint8_t));
+	uint8_t* pattern = calloc(zoom, sizeof(uint8_t));
 
 	for (i = blank_lines / 2; i < on + blank_lines / 2; ++i)
 	{
-		mask[i] = 1;
-	}
-
-	for (j = 0; j < height; ++j)
-	{
-		int l = j * width;
-
-		if (mask[j % zoom])
-		{
-			for (i = 0; i < width; ++i)
-			{
-				graph89_emulator_params.grid_mask[l + i] = mask[i % zoom];
-			}
-		}
-		else
-		{
-			for (i = 0; i < width; ++i)
-			{
-				graph89_emulator_params.grid_mask[l + i] = 0;
-			}
-		}
+		pattern[i] = 1;
 	}
 
-	free(mask);
+	return pattern;
 }
@@ -21,6 +21,7 @@
 #ifndef WRAPPER_COMMON_H
 #define WRAPPER_COMMON_H
 
+	#include <stdio.h>
 	#include <stdint.h>
 	#include <stdbool.h>
 
@@ -35,6 +36,18 @@
 	#define	CALC_TYPE_TI83PLUS  	9
 	#define	CALC_TYPE_TI83  	    10
 
+	#define	GRAPH89_ERR_VERIFY		801	//the image read back doesn't match what was written
+	#define	GRAPH89_ERR_CHECKSUM	802	//the state file changed since it was saved
+
+	#define	CHECKSUM_EXTENSION		".sum"
+	#define	CHECKSUM_TMP_EXTENSION	".tmp"
+
+	#define	STANDBY_MAX_ENTRIES		8	//suspended instances kept in memory at most
+
+	#define	INPUT_LOG_OFF			0
+	#define	INPUT_LOG_RECORD		1
+	#define	INPUT_LOG_REPLAY		2
+
 	typedef struct
 	{
 		uint8_t r;
@@ -74,6 +87,11 @@
 		int width;
 		int height;
 
+		//when set, the frame is kept as palette indices and buffer is only
+		//filled by graph89_resolve_display_buffer()
+		const uint8_t* indices;
+		const uint32_t* palette;
+
 	}display_buffer_struct;
 
 
@@ -81,30 +99,85 @@
 	{
 		int calc_type;
 		double speed_coefficient;
+		double slice_scale;
 		int screen_zoom;
 		bool is_grayscale;
 		bool is_grid;
+		bool is_deterministic;
+		int64_t emulated_time; //us, advanced by every engine slice
 		skin_colors_struct skin_colors;
 		display_buffer_struct display_buffer_not_zoomed;
 
-		uint8_t* grid_mask;
+		uint8_t* grid_pattern; //screen_zoom entries, 0 where a zoomed pixel is a grid line
 	}graph89_emulator_params_struct;
 
+	//progress of a multi file upload, index is the position in the list and error is 0 on success
+	typedef struct
+	{
+		void (*sending)(void* context, int index);
+		void (*sent)(void* context, int index, int error);
+		void* context;
+	}upload_listener_struct;
+
+	//progress of a ROM installation, done and total are in bytes
+	typedef struct
+	{
+		void (*progress)(void* context, int done, int total);
+		void* context;
+	}install_listener_struct;
+
+	//an image written block by block, hashed on the way out and read back when closed.
+	//Without a file only the hash and the progress are kept, for code that writes by itself.
+	typedef struct
+	{
+		FILE* file;
+		uint64_t hash;
+		int written;
+		int total;
+		const install_listener_struct* listener;
+	}image_writer_struct;
+
 
 	extern bool is_tilem;
 	extern bool is_tiemu;
-	extern uint32_t g89_crc_table[];
 	extern const uint8_t g89_shift_table[];
 	extern graph89_emulator_params_struct graph89_emulator_params;
 
-	void graph89_init_commons(int calc_type, int screen_width, int screen_height, int zoom, bool is_grayscale, bool is_grid, uint32_t pixel_on_color,
-			uint32_t pixel_off_color, uint32_t grid_color, double speed_coefficient, const char* tmp_dir);
+	int  graph89_init_commons(int calc_type, const char* image_file, const char* state_file, int screen_width, int screen_height, int zoom, bool is_grayscale,
+			bool is_grid, uint32_t pixel_on_color, uint32_t pixel_off_color, uint32_t grid_color, double speed_coefficient, const char* tmp_dir);
+	void graph89_suspend_commons(int limit);
 	void graph89_clean_commons();
 	int  graph89_read_emulated_screen (uint8_t *return_flags);
 	void graph89_get_emulated_screen (uint32_t* out_buffer, int out_buffer_length);
+	void graph89_get_emulated_screen_x1 (uint32_t* out_buffer, int out_buffer_length);
+	void graph89_render_screen (uint32_t* out_buffer, int out_buffer_length, int zoom);
+	void graph89_set_indexed_frame(const uint8_t* indices, const uint32_t* palette);
+	uint32_t* graph89_resolve_display_buffer();
 	void graph89_update_screen_zoom(int screen_zoom);
-	int  graph89_install_rom(const char* source, const char* destination, int calc_type, int is_rom);
+	int  graph89_install_rom(const char* source, const char* destination, int calc_type, int is_rom, const install_listener_struct* listener);
+	int  graph89_image_open(image_writer_struct* writer, const char* path, int total, const install_listener_struct* listener);
+	int  graph89_image_write(image_writer_struct* writer, const void* data, int length);
+	int  graph89_image_close(image_writer_struct* writer, const char* path);
+	void graph89_remove_checksum(const char* path);
+	void graph89_write_checksum(const char* path);
+	int  graph89_check_instance(int calc_type, const char* image_file, const char* state_file);
 	void graph89_send_key(int key_code, int is_pressed);
 	void graph89_send_keys(int* key_codes, int length);
 
+	void graph89_transfer_begin();
+	void graph89_transfer_end();
+	bool graph89_transfer_cancelled();
+	void graph89_cancel_transfer();
+
+	int64_t graph89_get_emulated_time();
+	void graph89_set_slice_scale(double scale);
+	double graph89_slice_coefficient();
+
+	int  graph89_input_log_start(const char* log_file, int replay);
+	void graph89_input_log_stop();
+	int  graph89_input_log_mode();
+	void graph89_input_log_slice();
+	void graph89_input_log_key(int key_code, int is_pressed);
+	void graph89_input_log_keys(int* key_codes, int length);
+
 #endif
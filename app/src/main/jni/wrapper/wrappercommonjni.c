@@ -19,16 +19,29 @@
 
 
 #include <jni.h>
+#include <stdlib.h>
 #include <wrappercommon.h>
+#include <wrappercommonjni.h>
 #include <androidlog.h>
 
-JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInitGraph89(JNIEnv * env, jobject obj, jint calc_type, jint screen_width, jint screen_height, jint zoom,
-		jint is_grayscale, jint is_grid, jint pixel_on_color, jint pixel_off_color, jint grid_color, jdouble speed_coefficient, jstring tmp_dir)
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInitGraph89(JNIEnv * env, jobject obj, jint calc_type, jstring image_file, jstring state_file,
+		jint screen_width, jint screen_height, jint zoom, jint is_grayscale, jint is_grid, jint pixel_on_color, jint pixel_off_color, jint grid_color, jdouble speed_coefficient, jstring tmp_dir)
 {
 	const char * tmpDir = (*env)->GetStringUTFChars(env, tmp_dir, 0);
-	graph89_init_commons(calc_type, screen_width, screen_height, zoom, is_grayscale, is_grid, pixel_on_color, pixel_off_color, grid_color, speed_coefficient, tmpDir);
-	LOGI("Init Graph89");
+	const char * imageFile = (*env)->GetStringUTFChars(env, image_file, 0);
+	const char * stateFile = (*env)->GetStringUTFChars(env, state_file, 0);
+	int resumed = graph89_init_commons(calc_type, imageFile, stateFile, screen_width, screen_height, zoom, is_grayscale, is_grid, pixel_on_color, pixel_off_color, grid_color, speed_coefficient, tmpDir);
+	LOGI(resumed ? "Resume Graph89" : "Init Graph89");
+	(*env)->ReleaseStringUTFChars(env, state_file, stateFile);
+	(*env)->ReleaseStringUTFChars(env, image_file, imageFile);
 	(*env)->ReleaseStringUTFChars(env, tmp_dir, tmpDir);
+	return resumed;
+}
+
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeSuspendGraph89(JNIEnv * env, jobject obj, jint standby_limit_mb)
+{
+	graph89_suspend_commons(standby_limit_mb * 1024 * 1024);
+	LOGI("Suspend Graph89");
 }
 
 JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeCleanGraph89(JNIEnv * env, jobject obj)
@@ -53,17 +66,59 @@ JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeGet
 	(*env)->ReleaseIntArrayElements(env, jScreenData, lcd_out, 0);
 }
 
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeGetEmulatedScreenX1(JNIEnv * env, jobject obj , jintArray jScreenData)
+{
+	uint32_t *lcd_out = (*env)->GetIntArrayElements(env, jScreenData, 0);
+	jsize lcd_out_len = (*env)->GetArrayLength(env, jScreenData);
+	graph89_get_emulated_screen_x1(lcd_out, lcd_out_len);
+	(*env)->ReleaseIntArrayElements(env, jScreenData, lcd_out, 0);
+}
+
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeRenderScreen(JNIEnv * env, jobject obj , jintArray jScreenData, jint zoom)
+{
+	uint32_t *lcd_out = (*env)->GetIntArrayElements(env, jScreenData, 0);
+	jsize lcd_out_len = (*env)->GetArrayLength(env, jScreenData);
+	graph89_render_screen(lcd_out, lcd_out_len, (int)zoom);
+	(*env)->ReleaseIntArrayElements(env, jScreenData, lcd_out, 0);
+}
+
 JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeUpdateScreenZoom(JNIEnv * env, jobject obj , jint screen_zoom)
 {
 	graph89_update_screen_zoom((int)screen_zoom);
 }
 
-JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInstallROM(JNIEnv * env, jobject obj, jstring source_file, jstring dest_file, jint calc_type, jint is_rom)
+//a com.graph89.emulationcore.InstallProgress, called on the installing thread
+typedef struct
+{
+	JNIEnv* env;
+	jobject progress;
+	jmethodID on_progress;
+}java_install_struct;
+
+static void java_install_progress(void* context, int done, int total)
+{
+	java_install_struct* install = (java_install_struct*) context;
+	(*install->env)->CallVoidMethod(install->env, install->progress, install->on_progress, (jint) done, (jint) total);
+}
+
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInstallROM(JNIEnv * env, jobject obj, jstring source_file, jstring dest_file, jint calc_type, jint is_rom, jobject progress)
 {
 	const char* source = (*env)->GetStringUTFChars(env, source_file, 0);
 	const char* destination = (*env)->GetStringUTFChars(env, dest_file, 0);
 
-	int code = graph89_install_rom(source, destination, (int) calc_type, (int)is_rom);
+	java_install_struct install;
+	install_listener_struct listener;
+	jclass cls = (*env)->GetObjectClass(env, progress);
+
+	install.env = env;
+	install.progress = progress;
+	install.on_progress = (*env)->GetMethodID(env, cls, "OnProgress", "(II)V");
+	(*env)->DeleteLocalRef(env, cls);
+
+	listener.progress = java_install_progress;
+	listener.context = &install;
+
+	int code = graph89_install_rom(source, destination, (int) calc_type, (int)is_rom, &listener);
 
 	(*env)->ReleaseStringUTFChars(env, source_file, source);
 	(*env)->ReleaseStringUTFChars(env, dest_file, destination);
@@ -73,6 +128,19 @@ JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeIns
 	return (jint) code;
 }
 
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeCheckInstance(JNIEnv * env, jobject obj, jint calc_type, jstring image_file, jstring state_file)
+{
+	const char* image = (*env)->GetStringUTFChars(env, image_file, 0);
+	const char* state = (*env)->GetStringUTFChars(env, state_file, 0);
+
+	int code = graph89_check_instance((int) calc_type, image, state);
+
+	(*env)->ReleaseStringUTFChars(env, image_file, image);
+	(*env)->ReleaseStringUTFChars(env, state_file, state);
+
+	return (jint) code;
+}
+
 JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeSendKey(JNIEnv * env, jobject obj , jint key, jint active)
 {
 	graph89_send_key((int)key, (int)active);
@@ -87,3 +155,92 @@ JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeSen
 
 	(*env)->ReleaseIntArrayElements(env, arr, keys, 0);
 }
+
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInputLogStart(JNIEnv * env, jobject obj, jstring log_file, jint replay)
+{
+	const char* file = (*env)->GetStringUTFChars(env, log_file, 0);
+	int code = graph89_input_log_start(file, (int)replay);
+	(*env)->ReleaseStringUTFChars(env, log_file, file);
+	return (jint) code;
+}
+
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInputLogStop(JNIEnv * env, jobject obj)
+{
+	graph89_input_log_stop();
+}
+
+JNIEXPORT jint JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeInputLogMode(JNIEnv * env, jobject obj)
+{
+	return (jint) graph89_input_log_mode();
+}
+
+JNIEXPORT jlong JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeGetEmulatedTime(JNIEnv * env, jobject obj)
+{
+	return (jlong) graph89_get_emulated_time();
+}
+
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeSetSliceScale(JNIEnv * env, jobject obj, jdouble scale)
+{
+	graph89_set_slice_scale((double)scale);
+}
+
+JNIEXPORT void JNICALL Java_com_graph89_emulationcore_EmulatorActivity_nativeCancelTransfer(JNIEnv * env, jobject obj)
+{
+	graph89_cancel_transfer();
+}
+
+static void java_upload_sending(void* context, int index)
+{
+	java_upload_struct* upload = (java_upload_struct*) context;
+	(*upload->env)->CallVoidMethod(upload->env, upload->progress, upload->on_sending, (jint)index);
+}
+
+static void java_upload_sent(void* context, int index, int error)
+{
+	java_upload_struct* upload = (java_upload_struct*) context;
+	(*upload->env)->CallVoidMethod(upload->env, upload->progress, upload->on_sent, (jint)index, (jint)error);
+}
+
+//the callbacks run on the calling thread, env stays valid for the whole upload
+void graph89_java_upload_begin(JNIEnv* env, jobjectArray files, jobject progress, java_upload_struct* upload)
+{
+	jclass cls = (*env)->GetObjectClass(env, progress);
+	int i;
+
+	upload->env = env;
+	upload->array = files;
+	upload->progress = progress;
+	upload->on_sending = (*env)->GetMethodID(env, cls, "OnSending", "(I)V");
+	upload->on_sent = (*env)->GetMethodID(env, cls, "OnSent", "(II)V");
+	(*env)->DeleteLocalRef(env, cls);
+
+	upload->count = (*env)->GetArrayLength(env, files);
+	upload->files = (const char**) calloc(upload->count > 0 ? upload->count : 1, sizeof(char*));
+
+	for (i = 0; i < upload->count; ++i)
+	{
+		jstring str = (jstring) (*env)->GetObjectArrayElement(env, files, i);
+		upload->files[i] = (*env)->GetStringUTFChars(env, str, 0);
+		(*env)->DeleteLocalRef(env, str);
+	}
+
+	upload->listener.sending = java_upload_sending;
+	upload->listener.sent = java_upload_sent;
+	upload->listener.context = upload;
+}
+
+void graph89_java_upload_end(java_upload_struct* upload)
+{
+	JNIEnv* env = upload->env;
+	int i;
+
+	for (i = 0; i < upload->count; ++i)
+	{
+		jstring str = (jstring) (*env)->GetObjectArrayElement(env, upload->array, i);
+		(*env)->ReleaseStringUTFChars(env, str, upload->files[i]);
+		(*env)->DeleteLocalRef(env, str);
+	}
+
+	free(upload->files);
+	upload->files = NULL;
+}
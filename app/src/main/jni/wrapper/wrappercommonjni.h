@@ -0,0 +1,45 @@
+/*
+ *   Graph89 - Emulator for Android
+ *
+ *	 Copyright (C) 2012-2013  Dritan Hashorva
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+#ifndef WRAPPER_COMMON_JNI_H
+#define WRAPPER_COMMON_JNI_H
+
+	#include <jni.h>
+	#include <wrappercommon.h>
+
+	//a java String[] of files to upload, reporting to a com.graph89.emulationcore.UploadProgress
+	typedef struct
+	{
+		JNIEnv* env;
+		jobjectArray array;
+		jobject progress;
+		jmethodID on_sending;
+		jmethodID on_sent;
+
+		const char** files;
+		int count;
+
+		upload_listener_struct listener;
+	}java_upload_struct;
+
+	void graph89_java_upload_begin(JNIEnv* env, jobjectArray files, jobject progress, java_upload_struct* upload);
+	void graph89_java_upload_end(java_upload_struct* upload);
+
+#endif